@@ -25,6 +25,11 @@ import java.text.DecimalFormat;
 
 /**
  * Holds the output of a pairwise sequences alignment.
+ * <p>
+ * The aligners record the path as a run-length edit script over the two
+ * input sequences (see {@link #getCigar()}). The gapped sequences and the
+ * markup line are only built the first time one of them is asked for, and
+ * the statistics and {@link #calculateScore()} are read off the script.
  *
  * @author Ahmed Moustafa (ahmed@users.sf.net)
  */
@@ -36,6 +41,19 @@ public class Alignment {
      */
     public static final char GAP = '-';
 
+    /**
+     * Edit operations of the script: a pair of residues, a residue of
+     * sequence #2 against a gap, and a residue of sequence #1 against a gap
+     */
+    static final int MATCH = 0;
+    static final int INSERTION = 1;
+    static final int DELETION = 2;
+
+    /**
+     * Letters of the operations in {@link #getCigar()}
+     */
+    private static final String OPERATIONS = "MID";
+
     /**
      * Default name for sequence #1
      */
@@ -101,6 +119,22 @@ public class Alignment {
      */
     private char[] markupLine;
 
+    /**
+     * Ungapped sequences the edit script walks, from start1 and start2
+     */
+    private String residues1;
+    private String residues2;
+
+    /**
+     * Edit script, one run per entry as length << 2 | operation
+     */
+    private int[] runs;
+
+    /**
+     * Whether identity, similarity and gaps hold the counts
+     */
+    private boolean counted = true;
+
     /**
      * Count of identical locations
      */
@@ -214,6 +248,7 @@ public class Alignment {
      * @return Returns the sequence1.
      */
     public char[] getSequence1() {
+        materialize();
         return sequence1;
     }
 
@@ -221,6 +256,8 @@ public class Alignment {
      * @param sequence1 The sequence1 to set.
      */
     public void setSequence1(char[] sequence1) {
+        materialize();
+        runs = null;
         this.sequence1 = sequence1;
     }
 
@@ -228,6 +265,7 @@ public class Alignment {
      * @return Returns the sequence2.
      */
     public char[] getSequence2() {
+        materialize();
         return sequence2;
     }
 
@@ -235,6 +273,8 @@ public class Alignment {
      * @param sequence2 The sequence2 to set.
      */
     public void setSequence2(char[] sequence2) {
+        materialize();
+        runs = null;
         this.sequence2 = sequence2;
     }
 
@@ -270,6 +310,7 @@ public class Alignment {
      * @return Returns the gaps.
      */
     public int getGaps() {
+        count();
         return gaps;
     }
 
@@ -277,6 +318,7 @@ public class Alignment {
      * @param gaps The gaps to set.
      */
     public void setGaps(int gaps) {
+        count();
         this.gaps = gaps;
     }
 
@@ -284,6 +326,7 @@ public class Alignment {
      * @return Returns the identity.
      */
     public int getIdentity() {
+        count();
         return identity;
     }
 
@@ -291,6 +334,7 @@ public class Alignment {
      * @param identity The identity to set.
      */
     public void setIdentity(int identity) {
+        count();
         this.identity = identity;
     }
 
@@ -298,6 +342,7 @@ public class Alignment {
      * @return Returns the markupLine.
      */
     public char[] getMarkupLine() {
+        materialize();
         return markupLine;
     }
 
@@ -305,6 +350,8 @@ public class Alignment {
      * @param markupLine The markupLine to set.
      */
     public void setMarkupLine(char[] markupLine) {
+        materialize();
+        runs = null;
         this.markupLine = markupLine;
     }
 
@@ -312,6 +359,7 @@ public class Alignment {
      * @return Returns the similarity.
      */
     public int getSimilarity() {
+        count();
         return similarity;
     }
 
@@ -319,9 +367,173 @@ public class Alignment {
      * @param similarity The similarity to set.
      */
     public void setSimilarity(int similarity) {
+        count();
         this.similarity = similarity;
     }
 
+    /**
+     * Returns the number of columns of the alignment, without building the
+     * gapped sequences
+     *
+     * @return alignment length
+     */
+    public int getLength() {
+        if (runs == null) {
+            return sequence1 == null ? 0 : sequence1.length;
+        }
+        int length = 0;
+        for (int run : runs) {
+            length += run >>> 2;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the edit script in CIGAR form, for example {@code 12M2I30M}:
+     * M is a pair of residues, I a residue of sequence #2 against a gap and
+     * D a residue of sequence #1 against a gap
+     *
+     * @return edit script, or null if the alignment was set from gapped
+     * sequences
+     */
+    public String getCigar() {
+        if (runs == null) {
+            return null;
+        }
+        StringBuilder cigar = new StringBuilder();
+        for (int run : runs) {
+            cigar.append(run >>> 2).append(OPERATIONS.charAt(run & 3));
+        }
+        return cigar.toString();
+    }
+
+    /**
+     * Sets the path as an edit script over the ungapped sequences, from
+     * start1 and start2. Statistics and gapped sequences are derived from it
+     * on demand.
+     *
+     * @param residues1 sequence #1
+     * @param residues2 sequence #2
+     * @param runs      edit script, one run per entry as length << 2 | operation,
+     *                  with no two neighbouring runs of the same operation
+     */
+    void setEditScript(String residues1, String residues2, int[] runs) {
+        this.residues1 = residues1;
+        this.residues2 = residues2;
+        this.runs = runs;
+        this.sequence1 = null;
+        this.sequence2 = null;
+        this.markupLine = null;
+        this.counted = false;
+    }
+
+    /**
+     * Builds the gapped sequences and markup line from the edit script, once
+     */
+    private void materialize() {
+        if (runs == null || sequence1 != null) {
+            return;
+        }
+        float[][] scores = matrix.getScores();
+        int length = getLength();
+        char[] aligned1 = new char[length];
+        char[] aligned2 = new char[length];
+        char[] markup = new char[length];
+        int i = start1, j = start2, k = 0;
+        for (int run : runs) {
+            for (int l = run >>> 2; l > 0; l--, k++) {
+                switch (run & 3) {
+                    case MATCH:
+                        char c1 = residues1.charAt(i++);
+                        char c2 = residues2.charAt(j++);
+                        aligned1[k] = c1;
+                        aligned2[k] = c2;
+                        markup[k] = c1 == c2 ? Markups.IDENTITY
+                                : scores[c1][c2] > 0 ? Markups.SIMILARITY
+                                : Markups.MISMATCH;
+                        break;
+                    case INSERTION:
+                        aligned1[k] = GAP;
+                        aligned2[k] = residues2.charAt(j++);
+                        markup[k] = Markups.GAP;
+                        break;
+                    default:
+                        aligned1[k] = residues1.charAt(i++);
+                        aligned2[k] = GAP;
+                        markup[k] = Markups.GAP;
+                }
+            }
+        }
+        sequence1 = aligned1;
+        sequence2 = aligned2;
+        markupLine = markup;
+    }
+
+    /**
+     * Counts identity, similarity and gaps from the edit script, once
+     */
+    private void count() {
+        if (counted) {
+            return;
+        }
+        counted = true;
+        float[][] scores = matrix.getScores();
+        identity = similarity = gaps = 0;
+        int i = start1, j = start2;
+        for (int run : runs) {
+            int length = run >>> 2;
+            switch (run & 3) {
+                case MATCH:
+                    for (int l = 0; l < length; l++) {
+                        char c1 = residues1.charAt(i++);
+                        char c2 = residues2.charAt(j++);
+                        if (c1 == c2) {
+                            identity++;
+                            similarity++;
+                        } else if (scores[c1][c2] > 0) {
+                            similarity++;
+                        }
+                    }
+                    break;
+                case INSERTION:
+                    j += length;
+                    gaps += length;
+                    break;
+                default:
+                    i += length;
+                    gaps += length;
+            }
+        }
+    }
+
+    /**
+     * {@link #calculateScore()} over the edit script: each gap run is opened
+     * once and extended for the rest of its length
+     */
+    private float calculateScriptScore() {
+        float calcScore = 0;
+        int i = start1, j = start2;
+        for (int run : runs) {
+            int length = run >>> 2;
+            if ((run & 3) == MATCH) {
+                for (int l = 0; l < length; l++) {
+                    calcScore += matrix.getScore(residues1.charAt(i++), residues2.charAt(j++));
+                }
+            } else {
+                calcScore -= open;
+                for (int l = 1; l < length; l++) {
+                    calcScore -= extend;
+                }
+                if ((run & 3) == INSERTION) {
+                    j += length;
+                } else {
+                    i += length;
+                }
+            }
+        }
+        return calcScore;
+    }
+
     /**
      * Returns a summary for alignment
      *
@@ -332,15 +544,15 @@ public class Alignment {
         DecimalFormat f1 = new DecimalFormat("0.00");
         DecimalFormat f2 = new DecimalFormat("0.00%");
 
-        int length = getSequence1().length;
+        int length = getLength();
 
         buffer.append("Sequence #1: " + getName1());
         buffer.append(Commons.getLineSeparator());
         buffer.append("Sequence #2: " + getName2());
         buffer.append(Commons.getLineSeparator());
-        buffer.append("Length #1: " + sequence1.length);
+        buffer.append("Length #1: " + length);
         buffer.append(Commons.getLineSeparator());
-        buffer.append("Length #2: " + sequence2.length);
+        buffer.append("Length #2: " + length);
         buffer.append(Commons.getLineSeparator());
         buffer.append("Matrix: "
                 + (matrix.getId() == null ? "" : matrix.getId()));
@@ -351,13 +563,13 @@ public class Alignment {
         buffer.append(Commons.getLineSeparator());
         buffer.append("Length: " + length);
         buffer.append(Commons.getLineSeparator());
-        buffer.append("Identity: " + identity + "/" + length + " ("
+        buffer.append("Identity: " + getIdentity() + "/" + length + " ("
                 + f2.format(identity / (float) length) + ")");
         buffer.append(Commons.getLineSeparator());
-        buffer.append("Similarity: " + similarity + "/" + length + " ("
+        buffer.append("Similarity: " + getSimilarity() + "/" + length + " ("
                 + f2.format(similarity / (float) length) + ")");
         buffer.append(Commons.getLineSeparator());
-        buffer.append("Gaps: " + gaps + "/" + length + " ("
+        buffer.append("Gaps: " + getGaps() + "/" + length + " ("
                 + f2.format(gaps / (float) length) + ")");
         buffer.append(Commons.getLineSeparator());
         buffer.append("Score: " + f1.format(score));
@@ -374,6 +586,9 @@ public class Alignment {
      * @return the calculated score
      */
     public float calculateScore() {
+        if (runs != null) {
+            return calculateScriptScore();
+        }
         float calcScore = 0; // the calculated score
         boolean previous1wasGap = false; // in the previous step there was a gap
         // in the first sequence
@@ -1,5 +1,6 @@
 package jaligner;
 
+import jaligner.matrix.IntegerMatrix;
 import jaligner.matrix.Matrix;
 
 public class BLOSUM62 {
@@ -42,4 +43,9 @@ public class BLOSUM62 {
         }
         return new Matrix("BLOSUM62", scores);
     }
+
+    // Scores are doubled so the 0.5 extend penalty stays a whole number
+    public static IntegerMatrix LoadInteger() {
+        return new IntegerMatrix(Load(), acids, 2);
+    }
 }
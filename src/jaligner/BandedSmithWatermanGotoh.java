@@ -0,0 +1,185 @@
+package jaligner;
+
+/**
+ * Banded implementation of the Smith-Waterman-Gotoh score. Only the cells
+ * whose diagonal j - i lies in [lo, hi] are filled, so a pair costs
+ * O(m * (hi - lo)) instead of O(m * n), and the score is the best of the
+ * alignments that stay inside the band.
+ * <p>
+ * Every cell also records whether the best path reaching it touched a
+ * restricting edge of the band. When the best path of the band did, the
+ * band is widened on both sides and filled again, until the best path stays
+ * clear of the edges or the band covers the whole matrix. The result is
+ * then a lower bound of the full score that is equal to it whenever the
+ * optimal alignment runs near the given diagonals.
+ */
+final class BandedSmithWatermanGotoh {
+    private static final int NEGATIVE_INFINITY = Integer.MIN_VALUE / 2;
+
+    /**
+     * Hidden constructor
+     */
+    private BandedSmithWatermanGotoh() {
+        super();
+    }
+
+    /**
+     * Scores a profiled query against an encoded target inside a band around
+     * the given diagonals, widening it while the best path touches its edge.
+     * With a stop score below {@link Integer#MAX_VALUE} the fill returns as
+     * soon as a cell reaches it, and widening ends once the band would hold
+     * half the matrix, where a full test is the cheaper way on.
+     *
+     * @param query     profiled query
+     * @param target    encoded target
+     * @param o         scaled open gap penalty
+     * @param e         scaled extend gap penalty
+     * @param diagonals diagonals (target position - query position) to band
+     * @param width     cells on each side of the outermost diagonals
+     * @param stop      score at which to stop
+     * @param workspace buffers owned by the calling thread
+     * @return the best local alignment score inside the final band, scaled,
+     * or a score of at least stop
+     */
+    static int score(QueryProfile query, byte[] target, int o, int e,
+                     int[] diagonals, int width, int stop, Workspace workspace) {
+        int m = query.length();
+        int n = target.length;
+        if (m == 0 || n == 0) {
+            return 0;
+        }
+        int low = 0, high = 0;
+        if (diagonals.length > 0) {
+            low = Integer.MAX_VALUE;
+            high = Integer.MIN_VALUE;
+            for (int d : diagonals) {
+                low = Math.min(low, d);
+                high = Math.max(high, d);
+            }
+        }
+
+        width = Math.max(width, 1);
+        while (true) {
+            // Diagonals outside [1 - m, n - 1] hold no cells
+            int lo = (int) Math.max((long) low - width, 1 - m);
+            int hi = (int) Math.min((long) high + width, n - 1);
+            long result = band(query, target, o, e, lo, hi, stop, workspace);
+            int best = (int) Math.abs(result);
+            if (best >= stop || result >= 0 || (lo == 1 - m && hi == n - 1)) {
+                return best;
+            }
+            width = width > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : width * 2;
+            if (stop < Integer.MAX_VALUE
+                    && (long) m * Math.min((long) high - low + 2L * width + 1, n) * 2 > (long) m * n) {
+                return best;
+            }
+        }
+    }
+
+    /**
+     * Fills the band [lo, hi] and returns its best score, negated if the best
+     * path touched a restricting edge, or the first score of at least stop
+     */
+    private static long band(QueryProfile query, byte[] target, int o, int e,
+                             int lo, int hi, int stop, Workspace workspace) {
+        int[] rows = query.getRows();
+        int size = query.getMatrix().getSize();
+        int m = query.length();
+        int n = target.length;
+
+        // An edge only restricts the paths if there are cells beyond it
+        boolean lowEdge = lo > 1 - m;
+        boolean highEdge = hi < n - 1;
+
+        int[] g = workspace.intGaps(n + 1);
+        int[] v = workspace.intScores(n + 1);
+        // Whether the best path to a cell touched an edge, the flags of g
+        // first and then those of v
+        boolean[] flags = workspace.edges(2 * (n + 1));
+        int vFlags = n + 1;
+        for (int j = 0; j <= n; j++) {
+            g[j] = NEGATIVE_INFINITY;
+            v[j] = 0;
+            flags[j] = false;
+            flags[vFlags + j] = false;
+        }
+
+        int best = 0;
+        boolean bestEdge = false;
+
+        for (int i = 1, row = 0; i <= m; i++, row += size) {
+            int jlo = Math.max(1, i + lo);
+            int jhi = Math.min(n, i + hi);
+            if (jlo > n) {
+                break;
+            }
+            if (jlo > jhi) {
+                continue;
+            }
+            int h = NEGATIVE_INFINITY;
+            boolean hFlag = false;
+            int vLeft = 0;
+            boolean vLeftFlag = false;
+            int vDiagonal = v[jlo - 1];
+            boolean diagonalFlag = flags[vFlags + jlo - 1];
+            for (int j = jlo; j <= jhi; j++) {
+                int f = vDiagonal + rows[row + target[j - 1]];
+
+                int g1 = g[j] - e;
+                int g2 = v[j] - o;
+                if (g1 > g2) {
+                    g[j] = g1;
+                } else {
+                    g[j] = g2;
+                    flags[j] = flags[vFlags + j];
+                }
+
+                int h1 = h - e;
+                int h2 = vLeft - o;
+                if (h1 > h2) {
+                    h = h1;
+                } else {
+                    h = h2;
+                    hFlag = vLeftFlag;
+                }
+
+                vDiagonal = v[j];
+                boolean nextDiagonalFlag = flags[vFlags + j];
+
+                int value;
+                boolean flag;
+                if (f >= g[j] && f >= h) {
+                    value = f;
+                    flag = diagonalFlag;
+                } else if (g[j] >= h) {
+                    value = g[j];
+                    flag = flags[j];
+                } else {
+                    value = h;
+                    flag = hFlag;
+                }
+                if (value <= 0) {
+                    value = 0;
+                    flag = false;
+                } else if ((lowEdge && j - i == lo) || (highEdge && j - i == hi)) {
+                    flag = true;
+                }
+
+                v[j] = value;
+                flags[vFlags + j] = flag;
+                vLeft = value;
+                vLeftFlag = flag;
+                diagonalFlag = nextDiagonalFlag;
+
+                if (value > best) {
+                    if (value >= stop) {
+                        return value;
+                    }
+                    best = value;
+                    bestEdge = flag;
+                }
+            }
+        }
+        return bestEdge ? -(long) best : best;
+    }
+}
@@ -0,0 +1,196 @@
+package jaligner;
+
+import jaligner.matrix.IntegerMatrix;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Inter-sequence (SWIPE style) implementation of the Smith-Waterman-Gotoh
+ * score using the Java Vector API. One query is scored against many targets
+ * at once, one target per vector lane. Targets are sorted by length and
+ * batched with their neighbours so the lanes of a batch finish together.
+ * <p>
+ * Batches run in 16-bit lanes and are rescored in 32-bit lanes if the best
+ * score gets close enough to the top of the lane to overflow. Requires
+ * {@code --add-modules jdk.incubator.vector} at compile and run time.
+ */
+final class BatchSmithWatermanGotoh {
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    /**
+     * Hidden constructor
+     */
+    private BatchSmithWatermanGotoh() {
+        super();
+    }
+
+    /**
+     * Scores a query against every target, with the same results as
+     * {@link SmithWatermanGotoh#score(QueryProfile, byte[], int, int)}
+     *
+     * @param profile profiled query
+     * @param targets encoded targets
+     * @param o       scaled open gap penalty
+     * @param e       scaled extend gap penalty
+     * @param scores  receives the scaled score of each target, in input order
+     */
+    static void score(QueryProfile profile, byte[][] targets, int o, int e, int[] scores) {
+        byte[] query = profile.getResidues();
+        IntegerMatrix matrix = profile.getMatrix();
+        int[] table = matrix.getScores();
+        int high = Integer.MIN_VALUE, low = Integer.MAX_VALUE;
+        for (int s : table) {
+            high = Math.max(high, s);
+            low = Math.min(low, s);
+        }
+
+        Integer[] order = new Integer[targets.length];
+        for (int t = 0; t < targets.length; t++) {
+            order[t] = t;
+        }
+        Arrays.sort(order, Comparator.comparingInt(t -> targets[t].length));
+
+        int lanes = SHORTS.length();
+        boolean shorts = o + e <= -Short.MIN_VALUE && -low <= -Short.MIN_VALUE;
+        for (int start = 0; start < order.length; start += lanes) {
+            int end = Math.min(start + lanes, order.length);
+            if (!shorts || !scoreShorts(query, targets, order, start, end, matrix, o, e, low, Short.MAX_VALUE - high, scores)) {
+                for (int from = start; from < end; from += INTS.length()) {
+                    scoreInts(query, targets, order, from, Math.min(from + INTS.length(), end), matrix, o, e, low, scores);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the per-column score table: for every code c, one row of lanes
+     * holding the score of c against each lane's target residue at column j.
+     * Lanes whose target has ended score as the lowest matrix value, which
+     * can never raise the best score.
+     */
+    private static void column(byte[][] targets, Integer[] order, int start, int end, int j,
+                               IntegerMatrix matrix, int lanes, int padding, int[] column) {
+        int size = matrix.getSize();
+        int[] table = matrix.getScores();
+        for (int lane = 0; lane < lanes; lane++) {
+            int t = start + lane;
+            byte[] target = t < end ? targets[order[t]] : null;
+            if (target != null && j < target.length) {
+                for (int c = 0, k = lane; c < size; c++, k += lanes) {
+                    column[k] = table[c * size + target[j]];
+                }
+            } else {
+                for (int c = 0, k = lane; c < size; c++, k += lanes) {
+                    column[k] = padding;
+                }
+            }
+        }
+    }
+
+    /**
+     * 16-bit lanes
+     *
+     * @return false if the scores could overflow the lanes
+     */
+    private static boolean scoreShorts(byte[] query, byte[][] targets, Integer[] order, int start, int end,
+                                       IntegerMatrix matrix, int o, int e, int padding, int limit, int[] scores) {
+        int lanes = SHORTS.length();
+        int size = matrix.getSize();
+        int length = targets[order[end - 1]].length;
+
+        int[] wide = new int[size * lanes];
+        short[] column = new short[size * lanes];
+        short[] hStore = new short[query.length * lanes];
+        short[] eStore = new short[query.length * lanes];
+        Arrays.fill(eStore, (short) -o);
+
+        ShortVector vZero = ShortVector.zero(SHORTS);
+        ShortVector vOpen = ShortVector.broadcast(SHORTS, (short) o);
+        ShortVector vExtend = ShortVector.broadcast(SHORTS, (short) e);
+        ShortVector vFloor = ShortVector.broadcast(SHORTS, (short) -o);
+        ShortVector vMax = vZero;
+
+        for (int j = 0; j < length; j++) {
+            column(targets, order, start, end, j, matrix, lanes, padding, wide);
+            for (int k = 0; k < wide.length; k++) {
+                column[k] = (short) wide[k];
+            }
+
+            ShortVector vF = vFloor;
+            ShortVector vDiagonal = vZero;
+            ShortVector vUp = vZero;
+            for (int p = 0, k = 0; p < query.length; p++, k += lanes) {
+                ShortVector vLeft = ShortVector.fromArray(SHORTS, hStore, k);
+                ShortVector vE = ShortVector.fromArray(SHORTS, eStore, k).sub(vExtend).max(vLeft.sub(vOpen));
+                vF = vF.sub(vExtend).max(vUp.sub(vOpen));
+                ShortVector vH = vDiagonal.add(ShortVector.fromArray(SHORTS, column, query[p] * lanes))
+                        .max(vE).max(vF).max(vZero);
+                vE.intoArray(eStore, k);
+                vH.intoArray(hStore, k);
+                vMax = vMax.max(vH);
+                vDiagonal = vLeft;
+                vUp = vH;
+            }
+
+            if (vMax.compare(VectorOperators.GT, (short) limit).anyTrue()) {
+                return false;
+            }
+        }
+
+        for (int t = start; t < end; t++) {
+            scores[order[t]] = vMax.lane(t - start);
+        }
+        return true;
+    }
+
+    /**
+     * 32-bit lanes
+     */
+    private static void scoreInts(byte[] query, byte[][] targets, Integer[] order, int start, int end,
+                                  IntegerMatrix matrix, int o, int e, int padding, int[] scores) {
+        int lanes = INTS.length();
+        int size = matrix.getSize();
+        int length = targets[order[end - 1]].length;
+
+        int[] column = new int[size * lanes];
+        int[] hStore = new int[query.length * lanes];
+        int[] eStore = new int[query.length * lanes];
+        Arrays.fill(eStore, -o);
+
+        IntVector vZero = IntVector.zero(INTS);
+        IntVector vOpen = IntVector.broadcast(INTS, o);
+        IntVector vExtend = IntVector.broadcast(INTS, e);
+        IntVector vFloor = IntVector.broadcast(INTS, -o);
+        IntVector vMax = vZero;
+
+        for (int j = 0; j < length; j++) {
+            column(targets, order, start, end, j, matrix, lanes, padding, column);
+
+            IntVector vF = vFloor;
+            IntVector vDiagonal = vZero;
+            IntVector vUp = vZero;
+            for (int p = 0, k = 0; p < query.length; p++, k += lanes) {
+                IntVector vLeft = IntVector.fromArray(INTS, hStore, k);
+                IntVector vE = IntVector.fromArray(INTS, eStore, k).sub(vExtend).max(vLeft.sub(vOpen));
+                vF = vF.sub(vExtend).max(vUp.sub(vOpen));
+                IntVector vH = vDiagonal.add(IntVector.fromArray(INTS, column, query[p] * lanes))
+                        .max(vE).max(vF).max(vZero);
+                vE.intoArray(eStore, k);
+                vH.intoArray(hStore, k);
+                vMax = vMax.max(vH);
+                vDiagonal = vLeft;
+                vUp = vH;
+            }
+        }
+
+        for (int t = start; t < end; t++) {
+            scores[order[t]] = vMax.lane(t - start);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package jaligner;
+
+import jaligner.SmithWatermanGotoh.Kernel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Picks the fastest one-to-many score kernel for this machine. Each available
+ * kernel scores a sample of real pairs, the kernels whose homology verdicts
+ * differ from the scalar kernel's are dropped, and the fastest of the rest
+ * wins. The choice is remembered in a properties file keyed by CPU model and
+ * JVM, so only the first run on a machine pays for the calibration.
+ * <p>
+ * The system property {@value #OVERRIDE} names a kernel to use without
+ * calibrating, and {@value #CACHE} moves the cache file from its default of
+ * {@code ~/.jaligner/kernels.properties}.
+ *
+ * @see SmithWatermanGotoh#setKernel(Kernel)
+ */
+public final class KernelSelector {
+    /**
+     * System property naming a kernel that overrides the calibration
+     */
+    public static final String OVERRIDE = "jaligner.kernel";
+
+    /**
+     * System property holding the path of the calibration cache
+     */
+    public static final String CACHE = "jaligner.kernel.cache";
+
+    /**
+     * Kernels that compete; the wavefront kernel is chosen by pair size
+     * instead, see {@link SmithWatermanGotoh#setWavefrontCells(long)}
+     */
+    private static final Kernel[] CANDIDATES = {Kernel.SCALAR, Kernel.STRIPED, Kernel.BATCH};
+
+    private static volatile String report = "Kernel not selected";
+
+    /**
+     * Hidden constructor
+     */
+    private KernelSelector() {
+        super();
+    }
+
+    /**
+     * Returns the kernel named by {@value #OVERRIDE}, or the one cached for
+     * this machine
+     *
+     * @return kernel, or null if the caller should {@link #calibrate}
+     * @throws IllegalArgumentException if the override names no kernel
+     */
+    public static Kernel lookup() {
+        String name = System.getProperty(OVERRIDE);
+        if (name != null && !name.isEmpty() && !name.equalsIgnoreCase("auto")) {
+            Kernel kernel = Kernel.valueOf(name.toUpperCase());
+            report = "Kernel " + kernel + " (override)";
+            return kernel;
+        }
+        String cached = load().getProperty(key());
+        if (cached != null) {
+            try {
+                Kernel kernel = Kernel.valueOf(cached);
+                if (kernel.isAvailable()) {
+                    report = "Kernel " + kernel + " (cached)";
+                    return kernel;
+                }
+            } catch (IllegalArgumentException unknown) {
+                // Written by another version, calibrate again
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Times every available kernel on a sample of pairs and caches the
+     * fastest one that agrees with the scalar kernel on every verdict
+     *
+     * @param queries   profiled queries of the sample
+     * @param targets   encoded targets, each scored against every query
+     * @param o         scaled open gap penalty
+     * @param e         scaled extend gap penalty
+     * @param threshold scaled homology threshold the verdicts are taken at
+     * @return the fastest agreeing kernel
+     */
+    public static Kernel calibrate(QueryProfile[] queries, byte[][] targets,
+                                   int o, int e, int threshold) {
+        List<Kernel> available = new ArrayList<>();
+        for (Kernel kernel : CANDIDATES) {
+            if (kernel.isAvailable()) {
+                available.add(kernel);
+            }
+        }
+        if (available.size() == 1) {
+            report = "Kernel " + available.get(0) + " (only one available)";
+            return available.get(0);
+        }
+
+        boolean[] verdicts = null;
+        Kernel best = Kernel.SCALAR;
+        long bestTime = Long.MAX_VALUE;
+        List<String> timings = new ArrayList<>();
+        for (Kernel kernel : available) {
+            // The first pass warms up the JIT, the second is timed
+            boolean[] found = run(queries, targets, o, e, threshold, kernel);
+            long start = System.nanoTime();
+            run(queries, targets, o, e, threshold, kernel);
+            long time = System.nanoTime() - start;
+
+            if (verdicts == null) {
+                verdicts = found;
+            } else if (!Arrays.equals(verdicts, found)) {
+                timings.add(kernel + " disagrees");
+                continue;
+            }
+            timings.add(String.format("%s %.1f ms", kernel, time / 1e6));
+            if (time < bestTime) {
+                bestTime = time;
+                best = kernel;
+            }
+        }
+
+        Properties properties = load();
+        properties.setProperty(key(), best.name());
+        store(properties);
+        report = "Kernel " + best + " (calibrated: " + String.join(", ", timings) + ")";
+        return best;
+    }
+
+    /**
+     * Returns how the last kernel was selected
+     *
+     * @return report line
+     */
+    public static String getReport() {
+        return report;
+    }
+
+    private static boolean[] run(QueryProfile[] queries, byte[][] targets,
+                                 int o, int e, int threshold, Kernel kernel) {
+        boolean[] verdicts = new boolean[queries.length * targets.length];
+        for (int q = 0; q < queries.length; q++) {
+            int[] scores = SmithWatermanGotoh.score(queries[q], targets, o, e, kernel);
+            for (int t = 0; t < targets.length; t++) {
+                verdicts[q * targets.length + t] = scores[t] >= threshold;
+            }
+        }
+        return verdicts;
+    }
+
+    /**
+     * Key of this machine: CPU model, JVM and whether the Vector API is on
+     */
+    private static String key() {
+        return cpuModel() + "|" + System.getProperty("java.vm.name") + " "
+                + System.getProperty("java.vm.version") + "|"
+                + (Kernel.BATCH.isAvailable() ? "vector" : "scalar");
+    }
+
+    private static String cpuModel() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/cpuinfo"))) {
+                if (line.startsWith("model name")) {
+                    return line.substring(line.indexOf(':') + 1).trim();
+                }
+            }
+        } catch (IOException | RuntimeException notLinux) {
+            // Fall back to what every platform has
+        }
+        String identifier = System.getenv("PROCESSOR_IDENTIFIER");
+        return identifier != null ? identifier : System.getProperty("os.arch");
+    }
+
+    private static Path cacheFile() {
+        String file = System.getProperty(CACHE);
+        return file != null ? Paths.get(file)
+                : Paths.get(System.getProperty("user.home"), ".jaligner", "kernels.properties");
+    }
+
+    private static Properties load() {
+        Properties properties = new Properties();
+        Path file = cacheFile();
+        if (Files.isRegularFile(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            } catch (IOException unreadable) {
+                // Start over, the calibration rewrites it
+            }
+        }
+        return properties;
+    }
+
+    private static void store(Properties properties) {
+        Path file = cacheFile();
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (OutputStream out = Files.newOutputStream(file)) {
+                properties.store(out, "Fastest one-to-many score kernel per CPU model and JVM");
+            }
+        } catch (IOException unwritable) {
+            // The choice still holds for this run
+        }
+    }
+}
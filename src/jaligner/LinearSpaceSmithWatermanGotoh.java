@@ -0,0 +1,370 @@
+package jaligner;
+
+import jaligner.matrix.Matrix;
+
+import java.util.Arrays;
+
+/**
+ * Linear-space implementation of the Smith-Waterman-Gotoh alignment that
+ * returns the same alignment as
+ * {@link SmithWatermanGotoh#align(Sequence, Sequence, Matrix, float, float)}.
+ * <p>
+ * The full traceback follows pointers that the forward recurrences fix cell
+ * by cell: STOP on a zero, else DIAGONAL before UP before LEFT, and a gap is
+ * opened rather than extended on a tie. Those pointers only depend on the
+ * values above and to the left of a cell, so they can be recomputed from any
+ * saved row. The path is recovered by divide and conquer over rows, in the
+ * manner of Hirschberg and of Myers and Miller: one forward pass over a block
+ * of rows saves the middle row and carries, for every cell below it, the cell
+ * (and gap state) of the middle row through which its traceback passes. The
+ * crossing of the traceback from the block's end splits the block in two,
+ * and each half is solved from its own saved top row. Blocks small enough
+ * are traced back directly.
+ * <p>
+ * Memory is one saved row per level plus a fixed block of pointers, instead
+ * of the O(m * n) traceback matrices; the time is O(m * n log m).
+ */
+final class LinearSpaceSmithWatermanGotoh {
+    /**
+     * Blocks of at most this many cells are traced back with a pointer matrix
+     */
+    private static final int BLOCK_CELLS = 1 << 20;
+
+    /**
+     * Pointers of the direct traceback: the direction of the best score in
+     * the low two bits, and whether the vertical and horizontal gaps extend
+     */
+    private static final byte DIRECTION = 3;
+    private static final byte VERTICAL_EXTENDS = 4;
+    private static final byte HORIZONTAL_EXTENDS = 8;
+
+    /**
+     * Origin of a traceback that stops before it reaches the middle row
+     */
+    private static final int STOPPED = -1;
+
+    private final char[] a1;
+    private final char[] a2;
+    private final float[][] scores;
+    private final float o;
+    private final float e;
+
+    /**
+     * Edit script of the path, in reverse order, as in the traceback of
+     * {@link SmithWatermanGotoh}
+     */
+    private final int[] reversed;
+    private int count;
+    private int last = -1;
+
+    /**
+     * Where the traceback stopped
+     */
+    private int startRow;
+    private int startCol;
+
+    private LinearSpaceSmithWatermanGotoh(char[] a1, char[] a2, float[][] scores,
+                                          float o, float e) {
+        this.a1 = a1;
+        this.a2 = a2;
+        this.scores = scores;
+        this.o = o;
+        this.e = e;
+        this.reversed = new int[a1.length + a2.length];
+    }
+
+    /**
+     * Aligns two sequences in linear space
+     *
+     * @param s1     sequence #1
+     * @param s2     sequence #2
+     * @param matrix scoring matrix
+     * @param o      open gap penalty
+     * @param e      extend gap penalty
+     * @return the alignment, without names, matrix or penalties set
+     */
+    static Alignment align(Sequence s1, Sequence s2, Matrix matrix, float o, float e) {
+        LinearSpaceSmithWatermanGotoh sw = new LinearSpaceSmithWatermanGotoh(
+                s1.toArray(), s2.toArray(), matrix.getScores(), o, e);
+        Cell end = sw.end();
+
+        // Row 0 of the matrix: no gap can be open above it
+        float[] v = new float[end.getCol() + 1];
+        float[] g = new float[end.getCol() + 1];
+        Arrays.fill(g, Float.NEGATIVE_INFINITY);
+        sw.trace(0, v, g, end.getRow(), end.getCol(), false);
+
+        int[] runs = new int[sw.count];
+        for (int r = 0; r < sw.count; r++) {
+            runs[r] = sw.reversed[sw.count - 1 - r];
+        }
+
+        Alignment alignment = new Alignment();
+        alignment.setScore(end.getScore());
+        alignment.setStart1(sw.startRow);
+        alignment.setStart2(sw.startCol);
+        alignment.setEditScript(s1.getSequence(), s2.getSequence(), runs);
+        return alignment;
+    }
+
+    /**
+     * Returns the end cell of the best local alignment, the first cell in
+     * row order that holds the best score, as the full-matrix construction
+     * finds it
+     */
+    private Cell end() {
+        int m = a1.length + 1;
+        int n = a2.length + 1;
+
+        float[] g = new float[n];
+        float[] v = new float[n];
+        float f, h, vDiagonal, g1, g2, h1, h2;
+        for (int j = 0; j < n; j++) {
+            g[j] = Float.NEGATIVE_INFINITY;
+        }
+
+        Cell cell = new Cell();
+        for (int i = 1; i < m; i++) {
+            float[] row = scores[a1[i - 1]];
+            h = Float.NEGATIVE_INFINITY;
+            vDiagonal = v[0];
+            for (int j = 1; j < n; j++) {
+                f = vDiagonal + row[a2[j - 1]];
+                g1 = g[j] - e;
+                g2 = v[j] - o;
+                g[j] = g1 > g2 ? g1 : g2;
+                h1 = h - e;
+                h2 = v[j - 1] - o;
+                h = h1 > h2 ? h1 : h2;
+                vDiagonal = v[j];
+                v[j] = maximum(f, g[j], h, 0);
+                if (v[j] > cell.getScore()) {
+                    cell.set(i, j, v[j]);
+                }
+            }
+        }
+        return cell;
+    }
+
+    /**
+     * Appends, in reverse, the traceback from cell (bottom, col) until it
+     * stops or leaves row top for the row above
+     *
+     * @param top    the row whose values are given; the traceback is only
+     *               followed through rows top + 1 to bottom, and top itself
+     *               when it is row 0
+     * @param v0     best scores of row top, columns 0 to col
+     * @param g0     vertical gap scores of row top, columns 0 to col
+     * @param bottom row the traceback starts at
+     * @param col    column the traceback starts at
+     * @param gap    true to start inside a vertical gap rather than at the
+     *               best score of the cell
+     */
+    private void trace(int top, float[] v0, float[] g0, int bottom, int col, boolean gap) {
+        int rows = bottom - top;
+        if (rows <= 1 || (long) rows * (col + 1) <= BLOCK_CELLS) {
+            traceBlock(top, v0, g0, bottom, col, gap);
+            return;
+        }
+
+        int middle = (top + bottom) >>> 1;
+        float[] v = v0.clone();
+        float[] g = g0.clone();
+        float[] vMiddle = null;
+        float[] gMiddle = null;
+
+        // Origins below the middle row: 2 * column of the middle-row cell the
+        // traceback from each cell passes through, plus 1 inside a vertical gap
+        int[] vOrigins = new int[col + 1];
+        int[] gOrigins = new int[col + 1];
+
+        float f, h, vDiagonal, g1, g2, h1, h2;
+        for (int i = top + 1; i <= bottom; i++) {
+            float[] row = scores[a1[i - 1]];
+            boolean below = i > middle;
+            h = Float.NEGATIVE_INFINITY;
+            vDiagonal = v[0];
+            int hOrigin = STOPPED;
+            int vDiagonalOrigin = vOrigins[0];
+            vOrigins[0] = STOPPED;
+            for (int j = 1; j <= col; j++) {
+                f = vDiagonal + row[a2[j - 1]];
+
+                g1 = g[j] - e;
+                g2 = v[j] - o;
+                boolean gExtends = g1 > g2;
+                g[j] = gExtends ? g1 : g2;
+
+                h1 = h - e;
+                h2 = v[j - 1] - o;
+                boolean hExtends = h1 > h2;
+                h = hExtends ? h1 : h2;
+
+                vDiagonal = v[j];
+                v[j] = maximum(f, g[j], h, 0);
+
+                if (below) {
+                    int gOrigin = gExtends ? gOrigins[j] : vOrigins[j];
+                    hOrigin = hExtends ? hOrigin : vOrigins[j - 1];
+                    int vOrigin;
+                    if (v[j] == 0) {
+                        vOrigin = STOPPED;
+                    } else if (v[j] == f) {
+                        vOrigin = vDiagonalOrigin;
+                    } else if (v[j] == g[j]) {
+                        vOrigin = gOrigin;
+                    } else {
+                        vOrigin = hOrigin;
+                    }
+                    vDiagonalOrigin = vOrigins[j];
+                    vOrigins[j] = vOrigin;
+                    gOrigins[j] = gOrigin;
+                }
+            }
+            if (i == middle) {
+                vMiddle = v.clone();
+                gMiddle = g.clone();
+                for (int j = 0; j <= col; j++) {
+                    vOrigins[j] = 2 * j;
+                    gOrigins[j] = 2 * j + 1;
+                }
+            }
+        }
+
+        int origin = gap ? gOrigins[col] : vOrigins[col];
+        trace(middle, vMiddle, gMiddle, bottom, col, gap);
+        if (origin != STOPPED) {
+            trace(top, v0, g0, middle, origin >> 1, (origin & 1) != 0);
+        }
+    }
+
+    /**
+     * {@link #trace} of a block of rows through a pointer matrix, the same
+     * traceback as the full-matrix alignment runs
+     */
+    private void traceBlock(int top, float[] v0, float[] g0, int bottom, int col, boolean gap) {
+        int n = col + 1;
+        byte[] pointers = new byte[(bottom - top) * n];
+        float[] v = v0.clone();
+        float[] g = g0.clone();
+
+        float f, h, vDiagonal, g1, g2, h1, h2;
+        for (int i = top + 1, k = 0; i <= bottom; i++, k += n) {
+            float[] row = scores[a1[i - 1]];
+            h = Float.NEGATIVE_INFINITY;
+            vDiagonal = v[0];
+            pointers[k] = Directions.STOP;
+            for (int j = 1; j <= col; j++) {
+                f = vDiagonal + row[a2[j - 1]];
+
+                byte pointer = 0;
+                g1 = g[j] - e;
+                g2 = v[j] - o;
+                if (g1 > g2) {
+                    g[j] = g1;
+                    pointer |= VERTICAL_EXTENDS;
+                } else {
+                    g[j] = g2;
+                }
+
+                h1 = h - e;
+                h2 = v[j - 1] - o;
+                if (h1 > h2) {
+                    h = h1;
+                    pointer |= HORIZONTAL_EXTENDS;
+                } else {
+                    h = h2;
+                }
+
+                vDiagonal = v[j];
+                v[j] = maximum(f, g[j], h, 0);
+
+                if (v[j] == 0) {
+                    pointer |= Directions.STOP;
+                } else if (v[j] == f) {
+                    pointer |= Directions.DIAGONAL;
+                } else if (v[j] == g[j]) {
+                    pointer |= Directions.UP;
+                } else {
+                    pointer |= Directions.LEFT;
+                }
+                pointers[k + j] = pointer;
+            }
+        }
+
+        // In the best score of a cell, or inside a vertical or horizontal gap
+        int i = bottom, j = col;
+        int state = gap ? Directions.UP : Directions.DIAGONAL;
+        while (i > top) {
+            byte pointer = pointers[(i - top - 1) * n + j];
+            if (state == Directions.DIAGONAL) {
+                switch (pointer & DIRECTION) {
+                    case Directions.DIAGONAL:
+                        append(Alignment.MATCH);
+                        i--;
+                        j--;
+                        break;
+                    case Directions.UP:
+                        state = Directions.UP;
+                        break;
+                    case Directions.LEFT:
+                        state = Directions.LEFT;
+                        break;
+                    default:
+                        startRow = i;
+                        startCol = j;
+                        return;
+                }
+            } else if (state == Directions.UP) {
+                append(Alignment.DELETION);
+                if ((pointer & VERTICAL_EXTENDS) == 0) {
+                    state = Directions.DIAGONAL;
+                }
+                i--;
+            } else {
+                append(Alignment.INSERTION);
+                if ((pointer & HORIZONTAL_EXTENDS) == 0) {
+                    state = Directions.DIAGONAL;
+                }
+                j--;
+            }
+        }
+
+        // Row 0 stops every traceback that reaches it
+        if (top == 0) {
+            startRow = 0;
+            startCol = j;
+        }
+    }
+
+    /**
+     * Appends one step of an operation, extending the last run if it is the
+     * same operation
+     */
+    private void append(int operation) {
+        if (operation == last) {
+            reversed[count - 1] += 1 << 2;
+        } else {
+            reversed[count++] = 1 << 2 | operation;
+            last = operation;
+        }
+    }
+
+    /**
+     * Returns the maximum of 4 float numbers, as the full-matrix construction
+     * takes it
+     */
+    private static float maximum(float a, float b, float c, float d) {
+        if (a > b) {
+            if (a > c) {
+                return a > d ? a : d;
+            } else {
+                return c > d ? c : d;
+            }
+        } else if (b > c) {
+            return b > d ? b : d;
+        } else {
+            return c > d ? c : d;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package jaligner;
+
+import java.util.ArrayDeque;
+
+/**
+ * Shared cap on the memory held by full-matrix alignments at one time.
+ * Callers reserve the footprint of an alignment before allocating its
+ * matrices and release it when they are done; a reservation that does not
+ * fit next to the others waits until enough is released. Waiting callers are
+ * served in the order they arrived, so a large reservation is not passed over
+ * forever by smaller ones that keep fitting. A footprint larger than the
+ * whole budget can never fit and is refused at once, so the caller can fall
+ * back to a linear-space path.
+ *
+ * @see SmithWatermanGotoh#align(Sequence, Sequence, jaligner.matrix.Matrix, float, float, MemoryBudget)
+ */
+public class MemoryBudget {
+    private final long capacity;
+    private long reserved;
+    private long peak;
+    private long refused;
+
+    /**
+     * Tickets of the callers of {@link #reserve(long)}, in arrival order;
+     * only the head may take its bytes
+     */
+    private final ArrayDeque<Object> queue = new ArrayDeque<>();
+
+    /**
+     * Constructor
+     *
+     * @param capacity bytes that may be reserved at one time
+     */
+    public MemoryBudget(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Reserves bytes, waiting while the budget is short of them or earlier
+     * callers are still waiting
+     *
+     * @param bytes footprint to reserve
+     * @return false, without waiting, if bytes exceeds the whole budget
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean reserve(long bytes) throws InterruptedException {
+        if (bytes > capacity) {
+            refused++;
+            return false;
+        }
+        Object ticket = new Object();
+        queue.addLast(ticket);
+        try {
+            while (queue.peekFirst() != ticket || reserved + bytes > capacity) {
+                wait();
+            }
+        } finally {
+            // Served or interrupted, the next caller becomes the head
+            queue.remove(ticket);
+            notifyAll();
+        }
+        reserved += bytes;
+        if (reserved > peak) {
+            peak = reserved;
+        }
+        return true;
+    }
+
+    /**
+     * Returns bytes taken by {@link #reserve(long)}
+     *
+     * @param bytes footprint to release
+     */
+    public synchronized void release(long bytes) {
+        reserved -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * @return Returns the capacity.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Returns the bytes reserved now.
+     */
+    public synchronized long getReserved() {
+        return reserved;
+    }
+
+    /**
+     * @return Returns the most bytes reserved at one time.
+     */
+    public synchronized long getPeak() {
+        return peak;
+    }
+
+    /**
+     * @return Returns the number of reservations larger than the budget.
+     */
+    public synchronized long getRefused() {
+        return refused;
+    }
+}
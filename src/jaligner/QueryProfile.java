@@ -0,0 +1,137 @@
+package jaligner;
+
+import jaligner.matrix.IntegerMatrix;
+
+/**
+ * An encoded sequence together with its score profile: for every residue,
+ * the score against each code of an {@link IntegerMatrix}. Built once for a
+ * sequence that is aligned against many others, so the per-pair work starts
+ * from ready-made rows instead of the raw sequence.
+ */
+public class QueryProfile {
+    /**
+     * Scoring matrix
+     */
+    private final IntegerMatrix matrix;
+
+    /**
+     * Encoded residues
+     */
+    private final byte[] residues;
+
+    /**
+     * Scores, indexed by position * size + code
+     */
+    private final int[] rows;
+
+    /**
+     * Sum of the best positive score of every residue
+     */
+    private final int maxScore;
+
+    /**
+     * Best score of each code against any residue, at least 0
+     */
+    private final int[] bestAgainst;
+
+    /**
+     * Striped layouts of the profile, built on first use by the striped kernel.
+     * Threads share a profile, so each layout is filled in completely before it
+     * is published through the volatile field; two threads racing may both
+     * build it, and either copy serves
+     */
+    volatile byte[] stripedBytes;
+    volatile short[] stripedShorts;
+    volatile int[] stripedInts;
+
+    /**
+     * Constructor
+     *
+     * @param residues encoded residues
+     * @param matrix   integer scoring matrix
+     */
+    public QueryProfile(byte[] residues, IntegerMatrix matrix) {
+        this.matrix = matrix;
+        this.residues = residues;
+
+        int size = matrix.getSize();
+        int[] scores = matrix.getScores();
+        int max = 0;
+        rows = new int[residues.length * size];
+        bestAgainst = new int[size];
+        for (int i = 0, k = 0; i < residues.length; i++) {
+            int best = 0;
+            for (int c = 0; c < size; c++, k++) {
+                rows[k] = scores[residues[i] * size + c];
+                if (rows[k] > best) {
+                    best = rows[k];
+                }
+                if (rows[k] > bestAgainst[c]) {
+                    bestAgainst[c] = rows[k];
+                }
+            }
+            max += best;
+        }
+        maxScore = max;
+    }
+
+    /**
+     * @return Returns the matrix.
+     */
+    public IntegerMatrix getMatrix() {
+        return matrix;
+    }
+
+    /**
+     * @return Returns the encoded residues.
+     */
+    public byte[] getResidues() {
+        return residues;
+    }
+
+    /**
+     * @return Returns the score rows, indexed by position * size + code.
+     */
+    public int[] getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the highest score any local alignment with this sequence can
+     * reach, whatever it is aligned against
+     *
+     * @return the scaled maximum score
+     */
+    public int getMaxScore() {
+        return maxScore;
+    }
+
+    /**
+     * Returns an upper bound on the local alignment score with a target: the
+     * smaller of {@link #getMaxScore()} and the sum, over the target, of the
+     * best score each residue reaches against any residue of this sequence.
+     * Runs in O(target length) without any DP.
+     *
+     * @param target encoded target
+     * @return the scaled upper bound
+     */
+    public int upperBound(byte[] target) {
+        int bound = 0;
+        for (byte c : target) {
+            bound += bestAgainst[c];
+            if (bound >= maxScore) {
+                return maxScore;
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Returns the length of the sequence
+     *
+     * @return sequence length
+     */
+    public int length() {
+        return residues.length;
+    }
+}
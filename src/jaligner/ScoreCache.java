@@ -0,0 +1,336 @@
+package jaligner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Persistent, content-addressed cache of Smith-Waterman scores in a
+ * memory-mapped file. Entries are keyed by a hash of each sequence and a hash
+ * of the scoring parameters, so identical proteins from different files or
+ * runs share one entry.
+ * <p>
+ * The file is a fixed-size open-addressing table: a key may live in any of
+ * {@link #PROBES} consecutive slots, and when all of them are taken the
+ * first one that has not been read since the clock hand last passed it is
+ * overwritten. Every slot carries a sequence number that is odd while the
+ * slot is being written; readers never wait and treat a slot that changes
+ * under them as a miss, so any number of threads (or processes mapping the
+ * same file) can read and write at once without locks.
+ * <p>
+ * Besides exact scores an entry can record that a score is below some
+ * bound or at least some bound, which is all a threshold test tells; see
+ * {@link #below(int)}, {@link #atLeast(int)}, {@link #decides(int, int)}
+ * and {@link #reaches(int, int)}.
+ */
+public class ScoreCache implements Closeable {
+    /**
+     * Returned by {@link #get(long, long, long)} when the key is not cached
+     */
+    public static final int MISS = Integer.MIN_VALUE;
+
+    /**
+     * Number of slots a key may occupy
+     */
+    public static final int PROBES = 8;
+
+    private static final int MAGIC = 0x53574331; // "SWC1"
+
+    // Values at or under -AT_LEAST record a lower bound, values between
+    // that and 0 an upper one; bounds stay under AT_LEAST
+    private static final int AT_LEAST = 1 << 30;
+    private static final int HEADER = 64;
+    private static final int SLOT = 40;
+
+    // Slot layout: sequence, value, referenced, unused, then the three keys
+    private static final int SEQUENCE = 0;
+    private static final int VALUE = 4;
+    private static final int REFERENCED = 8;
+    private static final int KEY1 = 16;
+    private static final int KEY2 = 24;
+    private static final int KEY3 = 32;
+
+    private static final VarHandle INT =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONG =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    /**
+     * Opens a cache file, creating the table in it if the file is empty. An
+     * existing table is opened at the size it already has, whatever maxBytes
+     * says, and is never reset, since other threads or processes may have it
+     * mapped; a file that holds anything else is refused.
+     *
+     * @param file     cache file
+     * @param maxBytes size cap of a new file
+     * @throws IOException              if the file cannot be opened or mapped,
+     *                                  or is not a score cache
+     * @throws IllegalArgumentException if maxBytes cannot hold one probe window
+     */
+    public ScoreCache(Path file, long maxBytes) throws IOException {
+        long slots = Math.min((maxBytes - HEADER) / SLOT, (Integer.MAX_VALUE - HEADER) / SLOT);
+        if (slots < PROBES) {
+            throw new IllegalArgumentException("Cache of " + maxBytes + " bytes is too small");
+        }
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // Creation is locked so two processes opening a new file set up
+            // one table; a table in use is never written here, so readers
+            // and writers of the slots need no lock
+            try (FileLock lock = channel.lock()) {
+                if (channel.size() == 0) {
+                    capacity = (int) slots;
+                    long size = HEADER + (long) capacity * SLOT;
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                    for (long offset = 0; offset < size; offset += 8) {
+                        LONG.set(buffer, (int) offset, 0L);
+                    }
+                    INT.set(buffer, 4, capacity);
+                    INT.setRelease(buffer, 0, MAGIC);
+                } else {
+                    capacity = existingCapacity(file);
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * SLOT);
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the capacity of the table in the file, checking the file holds
+     * a whole table of it
+     */
+    private int existingCapacity(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+        }
+        int slots = header.getInt(4);
+        if (header.getInt(0) != MAGIC || slots < PROBES
+                || channel.size() != HEADER + (long) slots * SLOT) {
+            throw new IOException(file + " is not a score cache");
+        }
+        return slots;
+    }
+
+    /**
+     * Returns a 64-bit hash of an encoded sequence
+     *
+     * @param residues encoded residues
+     * @return hash
+     */
+    public static long hash(byte[] residues) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : residues) {
+            h = (h ^ b) * 0x100000001b3L;
+        }
+        return mix(h ^ residues.length);
+    }
+
+    /**
+     * Returns a 64-bit hash of the scoring parameters
+     *
+     * @param matrixId matrix name
+     * @param scale    matrix scale
+     * @param o        scaled open gap penalty
+     * @param e        scaled extend gap penalty
+     * @return hash
+     */
+    public static long params(String matrixId, int scale, int o, int e) {
+        long h = String.valueOf(matrixId).hashCode();
+        h = mix(h * 31 + scale);
+        h = mix(h * 31 + o);
+        return mix(h * 31 + e);
+    }
+
+    /**
+     * Encodes "the score is below bound" as a cache value
+     *
+     * @param bound positive scaled bound, less than 2^30
+     * @return cache value
+     */
+    public static int below(int bound) {
+        return -bound;
+    }
+
+    /**
+     * Encodes "the score is at least bound" as a cache value, which is all
+     * a passed early-exit threshold test tells
+     *
+     * @param bound positive scaled bound, less than 2^30
+     * @return cache value
+     */
+    public static int atLeast(int bound) {
+        return -AT_LEAST - bound;
+    }
+
+    /**
+     * Returns whether a cache value answers "is the score at least
+     * threshold" with an exact score or an upper bound; when it does, the
+     * answer is {@code value >= threshold}. Lower bounds never decide here,
+     * as callers of this test use the value as the score.
+     *
+     * @param value     cache value, or {@link #MISS}
+     * @param threshold positive scaled threshold
+     * @return true if the value decides the test
+     */
+    public static boolean decides(int value, int threshold) {
+        if (value == MISS) {
+            return false;
+        }
+        return value >= 0 || threshold >= -value;
+    }
+
+    /**
+     * Returns whether a cache value shows that the score is at least
+     * threshold, as an exact score or a lower bound
+     *
+     * @param value     cache value, or {@link #MISS}
+     * @param threshold positive scaled threshold
+     * @return true if the score is known to reach threshold
+     */
+    public static boolean reaches(int value, int threshold) {
+        if (value >= 0) {
+            return value >= threshold;
+        }
+        return value != MISS && value <= -AT_LEAST && threshold <= -AT_LEAST - value;
+    }
+
+    /**
+     * Looks up a cached value
+     *
+     * @param key1 hash of sequence #1
+     * @param key2 hash of sequence #2
+     * @param key3 hash of the scoring parameters
+     * @return the cached value, or {@link #MISS}
+     */
+    public int get(long key1, long key2, long key3) {
+        int start = index(key1, key2, key3);
+        for (int probe = 0; probe < PROBES; probe++) {
+            int offset = offset(start, probe);
+            int sequence = (int) INT.getAcquire(buffer, offset + SEQUENCE);
+            if (sequence == 0) {
+                return MISS;
+            }
+            if ((sequence & 1) != 0) {
+                continue;
+            }
+            long k1 = (long) LONG.get(buffer, offset + KEY1);
+            long k2 = (long) LONG.get(buffer, offset + KEY2);
+            long k3 = (long) LONG.get(buffer, offset + KEY3);
+            int value = (int) INT.get(buffer, offset + VALUE);
+            VarHandle.acquireFence();
+            if ((int) INT.getVolatile(buffer, offset + SEQUENCE) != sequence) {
+                continue;
+            }
+            if (k1 == key1 && k2 == key2 && k3 == key3) {
+                INT.setOpaque(buffer, offset + REFERENCED, 1);
+                return value;
+            }
+        }
+        return MISS;
+    }
+
+    /**
+     * Stores a value, replacing the entry of the same key or evicting one.
+     * Gives up silently if another writer holds the chosen slot.
+     *
+     * @param key1  hash of sequence #1
+     * @param key2  hash of sequence #2
+     * @param key3  hash of the scoring parameters
+     * @param value score, {@link #below(int)} or {@link #atLeast(int)}
+     */
+    public void put(long key1, long key2, long key3, int value) {
+        int start = index(key1, key2, key3);
+        int victim = -1;
+        for (int probe = 0; probe < PROBES && victim < 0; probe++) {
+            int offset = offset(start, probe);
+            if ((int) INT.getAcquire(buffer, offset + SEQUENCE) == 0
+                    || ((long) LONG.get(buffer, offset + KEY1) == key1
+                    && (long) LONG.get(buffer, offset + KEY2) == key2
+                    && (long) LONG.get(buffer, offset + KEY3) == key3)) {
+                victim = offset;
+            }
+        }
+        // Clock: clear referenced slots until one that was not read is found
+        for (int probe = 0; probe < 2 * PROBES && victim < 0; probe++) {
+            int offset = offset(start, probe % PROBES);
+            if ((int) INT.getOpaque(buffer, offset + REFERENCED) == 0) {
+                victim = offset;
+            } else {
+                INT.setOpaque(buffer, offset + REFERENCED, 0);
+            }
+        }
+        if (victim < 0) {
+            victim = offset(start, 0);
+        }
+
+        int sequence = (int) INT.getAcquire(buffer, victim + SEQUENCE);
+        if ((sequence & 1) != 0
+                || !INT.compareAndSet(buffer, victim + SEQUENCE, sequence, sequence + 1)) {
+            return;
+        }
+        LONG.set(buffer, victim + KEY1, key1);
+        LONG.set(buffer, victim + KEY2, key2);
+        LONG.set(buffer, victim + KEY3, key3);
+        INT.set(buffer, victim + VALUE, value);
+        INT.set(buffer, victim + REFERENCED, 1);
+        int next = sequence + 2;
+        INT.setRelease(buffer, victim + SEQUENCE, next == 0 ? 2 : next);
+    }
+
+    /**
+     * @return Returns the number of slots.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Writes the table back to the file and closes it
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private int index(long key1, long key2, long key3) {
+        long h = mix(key1 ^ mix(key2 ^ mix(key3)));
+        return (int) Long.remainderUnsigned(h, capacity);
+    }
+
+    private int offset(int start, int probe) {
+        int slot = start + probe;
+        if (slot >= capacity) {
+            slot -= capacity;
+        }
+        return HEADER + slot * SLOT;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,16 @@
+package jaligner;
+
+/**
+ * Receives the scores of a one-to-many alignment, see
+ * {@link SmithWatermanGotoh#alignMany}
+ */
+@FunctionalInterface
+public interface ScoreSink {
+    /**
+     * Accepts the score of one target
+     *
+     * @param target index of the target in the list that was scored
+     * @param score  the best local alignment score of the query and target
+     */
+    void score(int target, float score);
+}
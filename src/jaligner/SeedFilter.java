@@ -0,0 +1,229 @@
+package jaligner;
+
+import java.util.Arrays;
+
+/**
+ * Heuristic seed-and-extend prefilter for one profiled query, in the style of
+ * BLAST. Every word of {@link #K} codes that scores at least the word
+ * threshold against some query position is indexed (the query's
+ * neighbourhood). A target passes when one of its words hits the index and
+ * the ungapped X-drop extension of that hit reaches the trigger score.
+ * <p>
+ * Unlike {@link QueryProfile#upperBound(byte[])} this is not exact: a pair
+ * whose best local alignment only scores well with gaps, or has no
+ * neighbourhood word, can be rejected. Use it where a small loss of recall is
+ * acceptable for a large cut in DP work.
+ */
+public class SeedFilter {
+    /**
+     * Word length
+     */
+    public static final int K = 3;
+
+    private final QueryProfile query;
+    private final int xDrop;
+    private final int trigger;
+
+    /**
+     * Query positions of each word, position lists of word w are
+     * positions[starts[w], starts[w + 1])
+     */
+    private final int[] starts;
+    private final int[] positions;
+
+    /**
+     * Constructor
+     *
+     * @param query         profiled query
+     * @param wordThreshold scaled minimum score of a neighbourhood word
+     * @param xDrop         scaled drop below the best score that stops an
+     *                      extension
+     * @param trigger       scaled ungapped score that lets a target through
+     */
+    public SeedFilter(QueryProfile query, int wordThreshold, int xDrop, int trigger) {
+        this.query = query;
+        this.xDrop = xDrop;
+        this.trigger = trigger;
+
+        int size = query.getMatrix().getSize();
+        int[] rows = query.getRows();
+        int m = query.length();
+
+        int[] best = new int[m];
+        for (int p = 0; p < m; p++) {
+            best[p] = Integer.MIN_VALUE;
+            for (int c = 0; c < size; c++) {
+                best[p] = Math.max(best[p], rows[p * size + c]);
+            }
+        }
+
+        // Collects (word, position) hits, then sorts them into lists by word
+        int[] words = new int[Math.max(16, m)];
+        int[] hits = new int[words.length];
+        int count = 0;
+        for (int p = 0; p + K <= m; p++) {
+            int r1 = p * size, r2 = r1 + size, r3 = r2 + size;
+            for (int c1 = 0; c1 < size; c1++) {
+                int s1 = rows[r1 + c1];
+                if (s1 + best[p + 1] + best[p + 2] < wordThreshold) {
+                    continue;
+                }
+                for (int c2 = 0; c2 < size; c2++) {
+                    int s2 = s1 + rows[r2 + c2];
+                    if (s2 + best[p + 2] < wordThreshold) {
+                        continue;
+                    }
+                    for (int c3 = 0; c3 < size; c3++) {
+                        if (s2 + rows[r3 + c3] >= wordThreshold) {
+                            if (count == words.length) {
+                                words = Arrays.copyOf(words, count * 2);
+                                hits = Arrays.copyOf(hits, count * 2);
+                            }
+                            words[count] = (c1 * size + c2) * size + c3;
+                            hits[count++] = p;
+                        }
+                    }
+                }
+            }
+        }
+
+        starts = new int[size * size * size + 1];
+        for (int k = 0; k < count; k++) {
+            starts[words[k] + 1]++;
+        }
+        for (int w = 0; w < size * size * size; w++) {
+            starts[w + 1] += starts[w];
+        }
+        positions = new int[count];
+        int[] next = Arrays.copyOf(starts, starts.length - 1);
+        for (int k = 0; k < count; k++) {
+            positions[next[words[k]]++] = hits[k];
+        }
+    }
+
+    /**
+     * @return Returns the query.
+     */
+    public QueryProfile getQuery() {
+        return query;
+    }
+
+    /**
+     * Returns the number of indexed (word, position) pairs
+     *
+     * @return neighbourhood size
+     */
+    public int size() {
+        return positions.length;
+    }
+
+    /**
+     * Decides whether a target has an ungapped segment pair with the query
+     * that reaches the trigger score
+     *
+     * @param target encoded target
+     * @return true if the target should go on to the full alignment
+     */
+    public boolean passes(byte[] target) {
+        return passes(target, new Workspace());
+    }
+
+    /**
+     * Decides whether a target has an ungapped segment pair with the query
+     * that reaches the trigger score, keeping the per-diagonal state in a
+     * reusable workspace
+     *
+     * @param target    encoded target
+     * @param workspace buffers owned by the calling thread ({@link Workspace})
+     * @return true if the target should go on to the full alignment
+     */
+    public boolean passes(byte[] target, Workspace workspace) {
+        return (int) (scan(target, trigger, workspace) >> 32) >= trigger;
+    }
+
+    /**
+     * Returns the diagonal of the best ungapped segment pair of a target
+     * with the query, the seed for a banded alignment. The target
+     * {@link #passes(byte[], Workspace)} exactly when a diagonal is returned,
+     * so one scan answers both; {@code passes} alone stops at the first
+     * segment pair that reaches the trigger.
+     *
+     * @param target    encoded target
+     * @param workspace buffers owned by the calling thread ({@link Workspace})
+     * @return target position minus query position along the best segment
+     * pair, or {@link Integer#MIN_VALUE} if none reaches the trigger score
+     * @see SmithWatermanGotoh#alignsAtLeastBanded
+     */
+    public int diagonal(byte[] target, Workspace workspace) {
+        long best = scan(target, Integer.MAX_VALUE, workspace);
+        return (int) (best >> 32) < trigger ? Integer.MIN_VALUE : (int) best;
+    }
+
+    /**
+     * Extends the hits of a target until one reaches stop, and returns the
+     * best extension score in the high and its diagonal in the low 32 bits;
+     * the score is -1 if there are no hits
+     */
+    private long scan(byte[] target, int stop, Workspace workspace) {
+        int size = query.getMatrix().getSize();
+        int[] rows = query.getRows();
+        int m = query.length();
+        int n = target.length;
+        long best = -1L << 32;
+        if (m < K || n < K) {
+            return best;
+        }
+
+        // End (exclusive, on the target) of the last extension on each
+        // diagonal, so hits inside an extended segment are not extended again
+        int[] extended = workspace.diagonals(m + n);
+        Arrays.fill(extended, 0, m + n, 0);
+
+        for (int j = 0; j + K <= n; j++) {
+            int w = (target[j] * size + target[j + 1]) * size + target[j + 2];
+            for (int k = starts[w]; k < starts[w + 1]; k++) {
+                int p = positions[k];
+                int d = j - p + m;
+                if (j < extended[d]) {
+                    continue;
+                }
+
+                int seed = rows[p * size + target[j]]
+                        + rows[(p + 1) * size + target[j + 1]]
+                        + rows[(p + 2) * size + target[j + 2]];
+
+                int right = 0, run = 0, end = j + K;
+                for (int q = p + K, t = j + K; q < m && t < n; q++, t++) {
+                    run += rows[q * size + target[t]];
+                    if (run > right) {
+                        right = run;
+                        end = t + 1;
+                    } else if (right - run > xDrop) {
+                        break;
+                    }
+                }
+
+                int left = 0;
+                run = 0;
+                for (int q = p - 1, t = j - 1; q >= 0 && t >= 0; q--, t--) {
+                    run += rows[q * size + target[t]];
+                    if (run > left) {
+                        left = run;
+                    } else if (left - run > xDrop) {
+                        break;
+                    }
+                }
+
+                int score = left + seed + right;
+                if (score > (int) (best >> 32)) {
+                    best = (long) score << 32 | ((j - p) & 0xffffffffL);
+                    if (score >= stop) {
+                        return best;
+                    }
+                }
+                extended[d] = end;
+            }
+        }
+        return best;
+    }
+}
@@ -18,8 +18,16 @@
 
 package jaligner;
 
+import jaligner.matrix.IntegerMatrix;
 import jaligner.matrix.Matrix;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * An implementation of the Smith-Waterman algorithm with Gotoh's improvement
  * for biological local pairwise sequence alignment.
@@ -28,6 +36,30 @@ import jaligner.matrix.Matrix;
  */
 
 public class SmithWatermanGotoh {
+    /**
+     * Stands in for negative infinity in the integer kernels, with enough
+     * headroom that subtracting penalties from it cannot overflow
+     */
+    private static final int NEGATIVE_INFINITY = Integer.MIN_VALUE / 2;
+
+    /**
+     * Pairs with at least this many DP cells are scored by the wavefront
+     * kernel
+     */
+    private static volatile long wavefrontCells = 1L << 26;
+
+    /**
+     * Kernel of the one-to-many score, null for the built-in choice
+     */
+    private static volatile Kernel kernel;
+
+    /**
+     * Integer forms of the matrices given to alignMany, built once per
+     * matrix since each holds a code for every char
+     */
+    private static final Map<Matrix, IntegerMatrix[]> INTEGER_MATRICES =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
     /**
      * Hidden constructor
      */
@@ -35,6 +67,87 @@ public class SmithWatermanGotoh {
         super();
     }
 
+    /**
+     * Returns the number of DP cells from which the integer score and
+     * threshold methods switch to the wavefront kernel
+     *
+     * @return cell count
+     */
+    public static long getWavefrontCells() {
+        return wavefrontCells;
+    }
+
+    /**
+     * Sets the number of DP cells (query length * target length) from which
+     * the integer score and threshold methods split a single pair into tiles
+     * and score them in parallel, see {@link Kernel#WAVEFRONT}
+     *
+     * @param cells cell count, {@link Long#MAX_VALUE} to never switch
+     */
+    public static void setWavefrontCells(long cells) {
+        wavefrontCells = cells;
+    }
+
+    /**
+     * Returns the kernel that {@link #score(QueryProfile, byte[][], int, int)}
+     * runs: the one set, or else {@link Kernel#BATCH} when the Vector API is
+     * present and {@link Kernel#SCALAR} otherwise
+     *
+     * @return kernel
+     */
+    public static Kernel getKernel() {
+        Kernel k = kernel;
+        if (k != null) {
+            return k;
+        }
+        return Kernel.BATCH.isAvailable() ? Kernel.BATCH : Kernel.SCALAR;
+    }
+
+    /**
+     * Sets the kernel of the one-to-many score, for example the one picked
+     * by {@link KernelSelector}
+     *
+     * @param k kernel, null for the built-in choice
+     * @throws IllegalArgumentException if the kernel is not available
+     */
+    public static void setKernel(Kernel k) {
+        if (k != null && !k.isAvailable()) {
+            throw new IllegalArgumentException(k + " kernel is not available");
+        }
+        kernel = k;
+    }
+
+    /**
+     * Score-only kernels for encoded sequences
+     */
+    public enum Kernel {
+        /**
+         * Scalar integer recurrences
+         */
+        SCALAR,
+        /**
+         * Striped SIMD recurrences, needs the jdk.incubator.vector module
+         */
+        STRIPED,
+        /**
+         * Inter-sequence SIMD recurrences, one target per lane, needs the
+         * jdk.incubator.vector module
+         */
+        BATCH,
+        /**
+         * Scalar recurrences over tiles of the matrix, the tiles of each
+         * anti-diagonal in parallel on the common fork/join pool
+         */
+        WAVEFRONT;
+
+        /**
+         * @return true if the kernel can run in this JVM
+         */
+        public boolean isAvailable() {
+            return this == SCALAR || this == WAVEFRONT || ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        }
+    }
+
 
     /**
      * Aligns two sequences by Smith-Waterman algorithm
@@ -51,6 +164,25 @@ public class SmithWatermanGotoh {
      */
     public static Alignment align(Sequence s1, Sequence s2, Matrix matrix,
                                   float o, float e) {
+        return align(s1, s2, matrix, o, e, new Workspace());
+    }
+
+    /**
+     * Aligns two sequences by Smith-Waterman algorithm, keeping the traceback
+     * matrices and DP rows in a reusable workspace
+     *
+     * @param s1        sequene #1 ({@link Sequence})
+     * @param s2        sequene #2 ({@link Sequence})
+     * @param matrix    scoring matrix ({@link Matrix})
+     * @param o         open gap penalty
+     * @param e         extend gap penalty
+     * @param workspace buffers owned by the calling thread ({@link Workspace})
+     * @return alignment object contains the two aligned sequences, the
+     * alignment score and alignment statistics
+     * @see #align(Sequence, Sequence, Matrix, float, float)
+     */
+    public static Alignment align(Sequence s1, Sequence s2, Matrix matrix,
+                                  float o, float e, Workspace workspace) {
         float[][] scores = matrix.getScores();
 
         SmithWatermanGotoh sw = new SmithWatermanGotoh();
@@ -58,7 +190,7 @@ public class SmithWatermanGotoh {
         int m = s1.length() + 1;
         int n = s2.length() + 1;
 
-        byte[] pointers = new byte[m * n];
+        byte[] pointers = workspace.pointers(m * n);
 
         // Initializes the boundaries of the traceback matrix to STOP.
         for (int i = 0, k = 0; i < m; i++, k += n) {
@@ -68,8 +200,8 @@ public class SmithWatermanGotoh {
             pointers[j] = Directions.STOP;
         }
 
-        short[] sizesOfVerticalGaps = new short[m * n];
-        short[] sizesOfHorizontalGaps = new short[m * n];
+        short[] sizesOfVerticalGaps = workspace.sizesOfVerticalGaps(m * n);
+        short[] sizesOfHorizontalGaps = workspace.sizesOfHorizontalGaps(m * n);
         for (int i = 0, k = 0; i < m; i++, k += n) {
             for (int j = 0; j < n; j++) {
                 sizesOfVerticalGaps[k + j] = sizesOfHorizontalGaps[k + j] = 1;
@@ -77,9 +209,9 @@ public class SmithWatermanGotoh {
         }
 
         Cell cell = sw.construct(s1, s2, scores, o, e, pointers,
-                sizesOfVerticalGaps, sizesOfHorizontalGaps);
-        Alignment alignment = sw.traceback(s1, s2, matrix, pointers, cell,
-                sizesOfVerticalGaps, sizesOfHorizontalGaps);
+                sizesOfVerticalGaps, sizesOfHorizontalGaps, workspace);
+        Alignment alignment = sw.traceback(s1, s2, pointers, cell,
+                sizesOfVerticalGaps, sizesOfHorizontalGaps, workspace);
         alignment.setName1(s1.getId());
         alignment.setName2(s2.getId());
         alignment.setMatrix(matrix);
@@ -88,6 +220,883 @@ public class SmithWatermanGotoh {
         return alignment;
     }
 
+    /**
+     * Aligns two sequences by Smith-Waterman algorithm under a shared memory
+     * budget. The {@link #footprint} of the full-matrix alignment is reserved
+     * before it starts, waiting for other alignments to finish if needed, and
+     * released when it is done. The alignment runs in the caller's workspace,
+     * whose traceback matrices are dropped before the reservation is
+     * released, so the workspace only keeps its row and residue buffers. A
+     * pair whose footprint exceeds the whole budget is aligned by
+     * {@link #alignLinear} instead.
+     *
+     * @param s1        sequene #1 ({@link Sequence})
+     * @param s2        sequene #2 ({@link Sequence})
+     * @param matrix    scoring matrix ({@link Matrix})
+     * @param o         open gap penalty
+     * @param e         extend gap penalty
+     * @param budget    memory budget shared by the aligning threads
+     * @param workspace buffers owned by the calling thread ({@link Workspace})
+     * @return alignment object contains the two aligned sequences, the
+     * alignment score and alignment statistics
+     * @see MemoryBudget
+     */
+    public static Alignment align(Sequence s1, Sequence s2, Matrix matrix,
+                                  float o, float e, MemoryBudget budget,
+                                  Workspace workspace) {
+        long bytes = footprint(s1.length(), s2.length());
+        boolean reserved;
+        try {
+            reserved = budget.reserve(bytes);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            reserved = false;
+        }
+        if (!reserved) {
+            return alignLinear(s1, s2, matrix, o, e);
+        }
+        try {
+            return align(s1, s2, matrix, o, e, workspace);
+        } finally {
+            workspace.releaseTraceback();
+            budget.release(bytes);
+        }
+    }
+
+    /**
+     * Returns the bytes a full-matrix alignment of two sequences allocates:
+     * the traceback directions and both gap-size matrices, five bytes per
+     * cell, plus the DP rows and the residues and edit script buffers
+     *
+     * @param m length of sequence #1
+     * @param n length of sequence #2
+     * @return footprint in bytes
+     */
+    public static long footprint(int m, int n) {
+        long cells = (long) (m + 1) * (n + 1);
+        return 5 * cells + 8L * (n + 1) + 2L * (m + n) + 4L * (m + n);
+    }
+
+    /**
+     * Aligns two sequences by Smith-Waterman algorithm in linear space. The
+     * path is recovered by divide and conquer instead of an m * n traceback,
+     * with the same tie breaking, so the alignment is the same as
+     * {@link #align} returns, ties included.
+     *
+     * @param s1     sequene #1 ({@link Sequence})
+     * @param s2     sequene #2 ({@link Sequence})
+     * @param matrix scoring matrix ({@link Matrix})
+     * @param o      open gap penalty
+     * @param e      extend gap penalty
+     * @return alignment object contains the two aligned sequences, the
+     * alignment score and alignment statistics
+     * @see Sequence
+     * @see Matrix
+     */
+    public static Alignment alignLinear(Sequence s1, Sequence s2, Matrix matrix,
+                                        float o, float e) {
+        Alignment alignment = LinearSpaceSmithWatermanGotoh.align(s1, s2, matrix, o, e);
+        alignment.setName1(s1.getId());
+        alignment.setName2(s2.getId());
+        alignment.setMatrix(matrix);
+        alignment.setOpen(o);
+        alignment.setExtend(e);
+        return alignment;
+    }
+
+    /**
+     * Scores two sequences by Smith-Waterman algorithm without building the
+     * alignment. Runs the same recurrences as {@link #align} but keeps only
+     * the current row, so no traceback matrices are allocated.
+     *
+     * @param s1     sequene #1 ({@link Sequence})
+     * @param s2     sequene #2 ({@link Sequence})
+     * @param matrix scoring matrix ({@link Matrix})
+     * @param o      open gap penalty
+     * @param e      extend gap penalty
+     * @return the best local alignment score
+     * @see Sequence
+     * @see Matrix
+     */
+    public static float score(Sequence s1, Sequence s2, Matrix matrix,
+                              float o, float e) {
+        return score(s1, s2, matrix, o, e, new Workspace());
+    }
+
+    /**
+     * Scores two sequences by Smith-Waterman algorithm without building the
+     * alignment, keeping the DP rows in a reusable workspace
+     *
+     * @param s1        sequene #1 ({@link Sequence})
+     * @param s2        sequene #2 ({@link Sequence})
+     * @param matrix    scoring matrix ({@link Matrix})
+     * @param o         open gap penalty
+     * @param e         extend gap penalty
+     * @param workspace buffers owned by the calling thread ({@link Workspace})
+     * @return the best local alignment score
+     * @see #score(Sequence, Sequence, Matrix, float, float)
+     */
+    public static float score(Sequence s1, Sequence s2, Matrix matrix,
+                              float o, float e, Workspace workspace) {
+        return score(s1.toArray(), s2.toArray(), matrix.getScores(), o, e, workspace);
+    }
+
+    private static float score(char[] a1, char[] a2, float[][] scores,
+                               float o, float e, Workspace workspace) {
+        int m = a1.length + 1;
+        int n = a2.length + 1;
+
+        float f; // score of alignment x1...xi to y1...yi if xi aligns to yi
+        float[] g = workspace.floatGaps(n); // score if xi aligns to a gap after yi
+        float h; // score if yi aligns to a gap after xi
+        float[] v = workspace.floatScores(n); // best score of alignment x1...xi to y1...yi
+        float vDiagonal;
+
+        for (int j = 0; j < n; j++) {
+            g[j] = Float.NEGATIVE_INFINITY;
+            v[j] = 0;
+        }
+
+        float best = 0;
+        float g1, g2, h1, h2;
+
+        for (int i = 1; i < m; i++) {
+            float[] row = scores[a1[i - 1]];
+            h = Float.NEGATIVE_INFINITY;
+            vDiagonal = v[0];
+            for (int j = 1; j < n; j++) {
+                f = vDiagonal + row[a2[j - 1]];
+
+                g1 = g[j] - e;
+                g2 = v[j] - o;
+                g[j] = g1 > g2 ? g1 : g2;
+
+                h1 = h - e;
+                h2 = v[j - 1] - o;
+                h = h1 > h2 ? h1 : h2;
+
+                vDiagonal = v[j];
+                v[j] = maximum(f, g[j], h, 0);
+
+                if (v[j] > best) {
+                    best = v[j];
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Scores one query against many targets by Smith-Waterman algorithm,
+     * without building an alignment per pair
+     *
+     * @param query   the fixed sequence ({@link Sequence})
+     * @param targets the sequences to score it against
+     * @param matrix  scoring matrix ({@link Matrix})
+     * @param o       open gap penalty
+     * @param e       extend gap penalty
+     * @return the best local alignment score of each target, in the order of
+     * targets
+     * @see #alignMany(Sequence, List, Matrix, float, float, ScoreSink)
+     */
+    public static float[] alignMany(Sequence query, List<Sequence> targets, Matrix matrix,
+                                    float o, float e) {
+        float[] scores = new float[targets.size()];
+        alignMany(query, targets, matrix, o, e, (target, score) -> scores[target] = score);
+        return scores;
+    }
+
+    /**
+     * Scores one query against many targets by Smith-Waterman algorithm and
+     * hands each score to a sink. The query is encoded and profiled once and
+     * the targets are scored together by {@link #score(QueryProfile, byte[][], int, int)};
+     * when the matrix and penalties cannot be made whole numbers the targets
+     * are scored one at a time in float, sharing one set of DP rows.
+     * The scores are the same as {@link #score(Sequence, Sequence, Matrix, float, float)}.
+     *
+     * @param query   the fixed sequence ({@link Sequence})
+     * @param targets the sequences to score it against
+     * @param matrix  scoring matrix ({@link Matrix})
+     * @param o       open gap penalty
+     * @param e       extend gap penalty
+     * @param sink    receives the score of each target, by index in targets
+     */
+    public static void alignMany(Sequence query, List<Sequence> targets, Matrix matrix,
+                                 float o, float e, ScoreSink sink) {
+        char[] a1 = query.toArray();
+        char[][] a2 = new char[targets.size()][];
+        for (int t = 0; t < a2.length; t++) {
+            a2[t] = targets.get(t).toArray();
+        }
+
+        IntegerMatrix integer = integerMatrix(matrix, o, e);
+        if (integer == null) {
+            float[][] scores = matrix.getScores();
+            Workspace workspace = new Workspace();
+            for (int t = 0; t < a2.length; t++) {
+                sink.score(t, score(a1, a2[t], scores, o, e, workspace));
+            }
+            return;
+        }
+
+        byte[][] encoded = new byte[a2.length][];
+        for (int t = 0; t < a2.length; t++) {
+            encoded[t] = integer.encode(a2[t]);
+        }
+        int[] scores = score(new QueryProfile(integer.encode(a1), integer), encoded,
+                integer.scale(o), integer.scale(e));
+        for (int t = 0; t < scores.length; t++) {
+            sink.score(t, integer.unscale(scores[t]));
+        }
+    }
+
+    /**
+     * Returns an integer form of a matrix at the smallest scale that makes
+     * its scores and the penalties whole numbers, or null if there is none
+     */
+    private static IntegerMatrix integerMatrix(Matrix matrix, float o, float e) {
+        for (IntegerMatrix integer : INTEGER_MATRICES.computeIfAbsent(matrix,
+                SmithWatermanGotoh::integerMatrices)) {
+            if (integer == null) {
+                continue;
+            }
+            try {
+                integer.scale(o);
+                integer.scale(e);
+                return integer;
+            } catch (IllegalArgumentException notWhole) {
+                // Try the next scale
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the integer forms of a matrix over the residues it scores, at
+     * scales 1, 2, 4 and 8, with null where its scores are not whole numbers.
+     * Residues it does not score share the code that scores 0.
+     */
+    private static IntegerMatrix[] integerMatrices(Matrix matrix) {
+        float[][] scores = matrix.getScores();
+        char[] alphabet = new char[scores.length];
+        int len = 0;
+        for (char c = 0; c < scores.length; c++) {
+            boolean scored = false;
+            for (int d = 0; d < scores.length && !scored; d++) {
+                scored = scores[c][d] != 0 || scores[d][c] != 0;
+            }
+            if (scored) {
+                alphabet[len++] = c;
+            }
+        }
+        IntegerMatrix[] integers = new IntegerMatrix[4];
+        if (len >= Byte.MAX_VALUE) {
+            return integers;
+        }
+        alphabet = Arrays.copyOf(alphabet, len);
+
+        for (int k = 0; k < integers.length; k++) {
+            try {
+                integers[k] = new IntegerMatrix(matrix, alphabet, 1 << k);
+            } catch (IllegalArgumentException notWhole) {
+                // Not at this scale
+            }
+        }
+        return integers;
+    }
+
+    /**
+     * Decides whether the Smith-Waterman score of two sequences reaches a
+     * threshold. The recurrences are the same as {@link #score}, but the
+     * computation stops as soon as a cell reaches the threshold, or as soon
+     * as the best value carried by the current row plus the best possible
+     * gain of every remaining row falls short of it.
+     *
+     * @param s1        sequene #1 ({@link Sequence})
+     * @param s2        sequene #2 ({@link Sequence})
+     * @param matrix    scoring matrix ({@link Matrix})
+     * @param o         open gap penalty
+     * @param e         extend gap penalty
+     * @param threshold minimum score
+     * @return true if the best local alignment score is at least threshold
+     * @see #score
+     */
+    public static boolean alignsAtLeast(Sequence s1, Sequence s2, Matrix matrix,
+                                        float o, float e, float threshold) {
+        return alignsAtLeast(s1, s2, matrix, o, e, threshold, new Workspace());
+    }
+
+    /**
+     * Decides whether the Smith-Waterman score of two sequences reaches a
+     * threshold, keeping the DP rows and the remaining-gain bound in a
+     * reusable workspace
+     *
+     * @param s1        sequene #1 ({@link Sequence})
+     * @param s2        sequene #2 ({@link Sequence})
+     * @param matrix    scoring matrix ({@link Matrix})
+     * @param o         open gap penalty
+     * @param e         extend gap penalty
+     * @param threshold minimum score
+     * @param workspace buffers owned by the calling thread ({@link Workspace})
+     * @return true if the best local alignment score is at least threshold
+     * @see #alignsAtLeast(Sequence, Sequence, Matrix, float, float, float)
+     */
+    public static boolean alignsAtLeast(Sequence s1, Sequence s2, Matrix matrix,
+                                        float o, float e, float threshold,
+                                        Workspace workspace) {
+        if (threshold <= 0) {
+            return true;
+        }
+
+        float[][] scores = matrix.getScores();
+
+        char[] a1 = workspace.residues1(s1);
+        char[] a2 = workspace.residues2(s2);
+
+        int m = s1.length() + 1;
+        int n = s2.length() + 1;
+
+        // Upper bound on what rows i..m-1 can still add to any path: each row
+        // contributes at most one diagonal step, scored against the residues
+        // that actually occur in sequence #2.
+        float[] remaining = workspace.floatRemaining(m + 1);
+        boolean[] present = workspace.present(scores.length);
+        Arrays.fill(present, 0, scores.length, false);
+        for (int j = 0; j < n - 1; j++) {
+            present[a2[j]] = true;
+        }
+        remaining[m] = 0;
+        for (int i = m - 1; i >= 1; i--) {
+            float[] row = scores[a1[i - 1]];
+            float gain = 0;
+            for (int c = 0; c < scores.length; c++) {
+                if (present[c] && row[c] > gain) {
+                    gain = row[c];
+                }
+            }
+            remaining[i] = remaining[i + 1] + gain;
+        }
+        if (remaining[1] < threshold) {
+            return false;
+        }
+
+        float f; // score of alignment x1...xi to y1...yi if xi aligns to yi
+        float[] g = workspace.floatGaps(n); // score if xi aligns to a gap after yi
+        float h; // score if yi aligns to a gap after xi
+        float[] v = workspace.floatScores(n); // best score of alignment x1...xi to y1...yi
+        float vDiagonal;
+
+        for (int j = 0; j < n; j++) {
+            g[j] = Float.NEGATIVE_INFINITY;
+            v[j] = 0;
+        }
+
+        float g1, g2, h1, h2, carried;
+
+        for (int i = 1; i < m; i++) {
+            float[] row = scores[a1[i - 1]];
+            h = Float.NEGATIVE_INFINITY;
+            vDiagonal = v[0];
+            carried = 0;
+            for (int j = 1; j < n; j++) {
+                f = vDiagonal + row[a2[j - 1]];
+
+                g1 = g[j] - e;
+                g2 = v[j] - o;
+                g[j] = g1 > g2 ? g1 : g2;
+
+                h1 = h - e;
+                h2 = v[j - 1] - o;
+                h = h1 > h2 ? h1 : h2;
+
+                vDiagonal = v[j];
+                v[j] = maximum(f, g[j], h, 0);
+
+                if (v[j] >= threshold) {
+                    return true;
+                }
+                if (v[j] > carried) {
+                    carried = v[j];
+                }
+                if (g[j] > carried) {
+                    carried = g[j];
+                }
+            }
+
+            // Nothing in the remaining rows can climb above this bound
+            if (carried + remaining[i + 1] < threshold) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Scores two encoded sequences by Smith-Waterman algorithm with the
+     * given kernel. Every kernel returns the same score.
+     *
+     * @param a1     encoded sequence #1
+     * @param a2     encoded sequence #2
+     * @param matrix integer scoring matrix ({@link IntegerMatrix})
+     * @param o      scaled open gap penalty
+     * @param e      scaled extend gap penalty
+     * @param kernel the kernel to run
+     * @return the best local alignment score, scaled
+     * @throws IllegalArgumentException if the kernel is not available
+     */
+    public static int score(byte[] a1, byte[] a2, IntegerMatrix matrix,
+                            int o, int e, Kernel kernel) {
+        return score(new QueryProfile(a1, matrix), a2, o, e, kernel);
+    }
+
+    /**
+     * Scores a profiled query against an encoded target by Smith-Waterman
+     * algorithm with the given kernel. Every kernel returns the same score.
+     *
+     * @param query  profiled query ({@link QueryProfile})
+     * @param target encoded target
+     * @param o      scaled open gap penalty
+     * @param e      scaled extend gap penalty
+     * @param kernel the kernel to run
+     * @return the best local alignment score, scaled
+     * @throws IllegalArgumentException if the kernel is not available
+     */
+    public static int score(QueryProfile query, byte[] target,
+                            int o, int e, Kernel kernel) {
+        if (!kernel.isAvailable()) {
+            throw new IllegalArgumentException(kernel + " kernel is not available");
+        }
+        switch (kernel) {
+            case STRIPED:
+                return StripedSmithWatermanGotoh.score(query, target, o, e);
+            case BATCH:
+                return score(query, new byte[][]{target}, o, e, kernel)[0];
+            case WAVEFRONT:
+                return WavefrontSmithWatermanGotoh.score(query, target, o, e, ForkJoinPool.commonPool());
+            default:
+                return score(query, target, o, e);
+        }
+    }
+
+    /**
+     * Scores one encoded query against many encoded targets by
+     * Smith-Waterman algorithm with the given kernel. The {@link Kernel#BATCH}
+     * kernel scores the targets side by side, one per vector lane; the other
+     * kernels score them one at a time.
+     *
+     * @param query   encoded query
+     * @param targets encoded targets
+     * @param matrix  integer scoring matrix ({@link IntegerMatrix})
+     * @param o       scaled open gap penalty
+     * @param e       scaled extend gap penalty
+     * @param kernel  the kernel to run
+     * @return the best local alignment score of each target, scaled, in the
+     * order of targets
+     * @throws IllegalArgumentException if the kernel is not available
+     */
+    public static int[] score(byte[] query, byte[][] targets, IntegerMatrix matrix,
+                              int o, int e, Kernel kernel) {
+        return score(new QueryProfile(query, matrix), targets, o, e, kernel);
+    }
+
+    /**
+     * Scores one profiled query against many encoded targets by
+     * Smith-Waterman algorithm with the given kernel.
+     *
+     * @param query   profiled query ({@link QueryProfile})
+     * @param targets encoded targets
+     * @param o       scaled open gap penalty
+     * @param e       scaled extend gap penalty
+     * @param kernel  the kernel to run
+     * @return the best local alignment score of each target, scaled, in the
+     * order of targets
+     * @throws IllegalArgumentException if the kernel is not available
+     * @see #score(byte[], byte[][], IntegerMatrix, int, int, Kernel)
+     */
+    public static int[] score(QueryProfile query, byte[][] targets,
+                              int o, int e, Kernel kernel) {
+        if (!kernel.isAvailable()) {
+            throw new IllegalArgumentException(kernel + " kernel is not available");
+        }
+        int[] scores = new int[targets.length];
+        if (kernel == Kernel.BATCH) {
+            BatchSmithWatermanGotoh.score(query, targets, o, e, scores);
+        } else if (kernel == Kernel.SCALAR) {
+            Workspace workspace = new Workspace();
+            for (int t = 0; t < targets.length; t++) {
+                scores[t] = score(query, targets[t], o, e, workspace);
+            }
+        } else {
+            for (int t = 0; t < targets.length; t++) {
+                scores[t] = score(query, targets[t], o, e, kernel);
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Scores one profiled query against many encoded targets by
+     * Smith-Waterman algorithm with the kernel of {@link #getKernel()}.
+     * Pairs of at least {@link #getWavefrontCells()} cells are split into
+     * tiles as in {@link #score(QueryProfile, byte[], int, int)}.
+     *
+     * @param query   profiled query ({@link QueryProfile})
+     * @param targets encoded targets
+     * @param o       scaled open gap penalty
+     * @param e       scaled extend gap penalty
+     * @return the best local alignment score of each target, scaled, in the
+     * order of targets
+     */
+    public static int[] score(QueryProfile query, byte[][] targets, int o, int e) {
+        Kernel k = getKernel();
+
+        // Long pairs go to the wavefront kernel, the rest to the chosen one
+        int[] scores = new int[targets.length];
+        int[] rest = new int[targets.length];
+        int count = 0;
+        for (int t = 0; t < targets.length; t++) {
+            if ((long) query.length() * targets[t].length >= wavefrontCells) {
+                scores[t] = WavefrontSmithWatermanGotoh.score(query, targets[t], o, e, ForkJoinPool.commonPool());
+            } else {
+                rest[count++] = t;
+            }
+        }
+        if (count == targets.length) {
+            return score(query, targets, o, e, k);
+        }
+        byte[][] batch = new byte[count][];
+        for (int c = 0; c < count; c++) {
+            batch[c] = targets[rest[c]];
+        }
+        int[] batched = score(query, batch, o, e, k);
+        for (int c = 0; c < count; c++) {
+            scores[rest[c]] = batched[c];
+        }
+        return scores;
+    }
+
+    /**
+     * Scores two encoded sequences by Smith-Waterman algorithm. This is the
+     * integer form of {@link #score(Sequence, Sequence, Matrix, float, float)}:
+     * residues are codes of an {@link IntegerMatrix} and the score and gap
+     * penalties are in its scaled units.
+     *
+     * @param a1     encoded sequence #1
+     * @param a2     encoded sequence #2
+     * @param matrix integer scoring matrix ({@link IntegerMatrix})
+     * @param o      scaled open gap penalty
+     * @param e      scaled extend gap penalty
+     * @return the best local alignment score, scaled
+     * @see IntegerMatrix#encode
+     */
+    public static int score(byte[] a1, byte[] a2, IntegerMatrix matrix,
+                            int o, int e) {
+        return score(new QueryProfile(a1, matrix), a2, o, e);
+    }
+
+    /**
+     * Scores a profiled query against an encoded target by Smith-Waterman
+     * algorithm. The query runs down the rows of the DP matrix, so each row
+     * reads its scores straight from the profile.
+     *
+     * @param query  profiled query ({@link QueryProfile})
+     * @param target encoded target
+     * @param o      scaled open gap penalty
+     * @param e      scaled extend gap penalty
+     * @return the best local alignment score, scaled
+     */
+    public static int score(QueryProfile query, byte[] target, int o, int e) {
+        return score(query, target, o, e, new Workspace());
+    }
+
+    /**
+     * Scores a profiled query against an encoded target by Smith-Waterman
+     * algorithm, keeping the DP rows in a reusable workspace
+     *
+     * @param query     profiled query ({@link QueryProfile})
+     * @param target    encoded target
+     * @param o         scaled open gap penalty
+     * @param e         scaled extend gap penalty
+     * @param workspace buffers owned by the calling thread ({@link Workspace})
+     * @return the best local alignment score, scaled
+     */
+    public static int score(QueryProfile query, byte[] target, int o, int e,
+                            Workspace workspace) {
+        if ((long) query.length() * target.length >= wavefrontCells) {
+            return WavefrontSmithWatermanGotoh.score(query, target, o, e, ForkJoinPool.commonPool());
+        }
+
+        int[] rows = query.getRows();
+        int size = query.getMatrix().getSize();
+
+        int m = query.length() + 1;
+        int n = target.length + 1;
+
+        int f; // score of alignment x1...xi to y1...yi if xi aligns to yi
+        int[] g = workspace.intGaps(n); // score if xi aligns to a gap after yi
+        int h; // score if yi aligns to a gap after xi
+        int[] v = workspace.intScores(n); // best score of alignment x1...xi to y1...yi
+        int vDiagonal;
+
+        for (int j = 0; j < n; j++) {
+            g[j] = NEGATIVE_INFINITY;
+            v[j] = 0;
+        }
+
+        int best = 0;
+        int g1, g2, h1, h2;
+
+        for (int i = 1, row = 0; i < m; i++, row += size) {
+            h = NEGATIVE_INFINITY;
+            vDiagonal = v[0];
+            for (int j = 1; j < n; j++) {
+                f = vDiagonal + rows[row + target[j - 1]];
+
+                g1 = g[j] - e;
+                g2 = v[j] - o;
+                g[j] = g1 > g2 ? g1 : g2;
+
+                h1 = h - e;
+                h2 = v[j - 1] - o;
+                h = h1 > h2 ? h1 : h2;
+
+                vDiagonal = v[j];
+                v[j] = maximum(f, g[j], h, 0);
+
+                if (v[j] > best) {
+                    best = v[j];
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Decides whether the Smith-Waterman score of two encoded sequences
+     * reaches a threshold. This is the integer form of
+     * {@link #alignsAtLeast(Sequence, Sequence, Matrix, float, float, float)}.
+     *
+     * @param a1        encoded sequence #1
+     * @param a2        encoded sequence #2
+     * @param matrix    integer scoring matrix ({@link IntegerMatrix})
+     * @param o         scaled open gap penalty
+     * @param e         scaled extend gap penalty
+     * @param threshold scaled minimum score
+     * @return true if the best local alignment score is at least threshold
+     */
+    public static boolean alignsAtLeast(byte[] a1, byte[] a2, IntegerMatrix matrix,
+                                        int o, int e, int threshold) {
+        return alignsAtLeast(new QueryProfile(a1, matrix), a2, o, e, threshold);
+    }
+
+    /**
+     * Decides whether the Smith-Waterman score of a profiled query and an
+     * encoded target reaches a threshold, stopping early as
+     * {@link #alignsAtLeast(Sequence, Sequence, Matrix, float, float, float)}
+     * does. Pairs whose {@link QueryProfile#upperBound(byte[])} is below the
+     * threshold are rejected in O(target length) without any DP.
+     *
+     * @param query     profiled query ({@link QueryProfile})
+     * @param target    encoded target
+     * @param o         scaled open gap penalty
+     * @param e         scaled extend gap penalty
+     * @param threshold scaled minimum score
+     * @return true if the best local alignment score is at least threshold
+     */
+    public static boolean alignsAtLeast(QueryProfile query, byte[] target,
+                                        int o, int e, int threshold) {
+        return alignsAtLeast(query, target, o, e, threshold, new Workspace());
+    }
+
+    /**
+     * Decides whether the Smith-Waterman score of a profiled query and an
+     * encoded target reaches a threshold, keeping the DP rows in a reusable
+     * workspace
+     *
+     * @param query     profiled query ({@link QueryProfile})
+     * @param target    encoded target
+     * @param o         scaled open gap penalty
+     * @param e         scaled extend gap penalty
+     * @param threshold scaled minimum score
+     * @param workspace buffers owned by the calling thread ({@link Workspace})
+     * @return true if the best local alignment score is at least threshold
+     * @see #alignsAtLeast(QueryProfile, byte[], int, int, int)
+     */
+    public static boolean alignsAtLeast(QueryProfile query, byte[] target,
+                                        int o, int e, int threshold,
+                                        Workspace workspace) {
+        if (threshold <= 0) {
+            return true;
+        }
+        if (query.upperBound(target) < threshold) {
+            return false;
+        }
+
+        int[] rows = query.getRows();
+        int size = query.getMatrix().getSize();
+
+        int m = query.length() + 1;
+        int n = target.length + 1;
+
+        // Upper bound on what rows i..m-1 can still add to any path
+        int[] remaining = workspace.remaining(m + 1);
+        boolean[] present = workspace.present(size);
+        Arrays.fill(present, 0, size, false);
+        for (byte c : target) {
+            present[c] = true;
+        }
+        remaining[m] = 0;
+        for (int i = m - 1, row = (m - 2) * size; i >= 1; i--, row -= size) {
+            int gain = 0;
+            for (int c = 0; c < size; c++) {
+                if (present[c] && rows[row + c] > gain) {
+                    gain = rows[row + c];
+                }
+            }
+            remaining[i] = remaining[i + 1] + gain;
+        }
+        if (remaining[1] < threshold) {
+            return false;
+        }
+        if ((long) query.length() * target.length >= wavefrontCells) {
+            return WavefrontSmithWatermanGotoh.score(query, target, o, e, ForkJoinPool.commonPool()) >= threshold;
+        }
+
+        int f; // score of alignment x1...xi to y1...yi if xi aligns to yi
+        int[] g = workspace.intGaps(n); // score if xi aligns to a gap after yi
+        int h; // score if yi aligns to a gap after xi
+        int[] v = workspace.intScores(n); // best score of alignment x1...xi to y1...yi
+        int vDiagonal;
+
+        for (int j = 0; j < n; j++) {
+            g[j] = NEGATIVE_INFINITY;
+            v[j] = 0;
+        }
+
+        int g1, g2, h1, h2, carried;
+
+        for (int i = 1, row = 0; i < m; i++, row += size) {
+            h = NEGATIVE_INFINITY;
+            vDiagonal = v[0];
+            carried = 0;
+            for (int j = 1; j < n; j++) {
+                f = vDiagonal + rows[row + target[j - 1]];
+
+                g1 = g[j] - e;
+                g2 = v[j] - o;
+                g[j] = g1 > g2 ? g1 : g2;
+
+                h1 = h - e;
+                h2 = v[j - 1] - o;
+                h = h1 > h2 ? h1 : h2;
+
+                vDiagonal = v[j];
+                v[j] = maximum(f, g[j], h, 0);
+
+                if (v[j] >= threshold) {
+                    return true;
+                }
+                if (v[j] > carried) {
+                    carried = v[j];
+                }
+                if (g[j] > carried) {
+                    carried = g[j];
+                }
+            }
+
+            // Nothing in the remaining rows can climb above this bound
+            if (carried + remaining[i + 1] < threshold) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Scores a profiled query against an encoded target inside a band of
+     * diagonals. Only cells within width of the outermost of the given
+     * diagonals (target position - query position) are filled; when the best
+     * path of the band touches its edge the band is widened and filled again,
+     * up to the whole matrix. The score never exceeds
+     * {@link #score(QueryProfile, byte[], int, int)} and equals it whenever
+     * the optimal alignment stays near the diagonals, as it does for long,
+     * closely related proteins.
+     *
+     * @param query     profiled query ({@link QueryProfile})
+     * @param target    encoded target
+     * @param o         scaled open gap penalty
+     * @param e         scaled extend gap penalty
+     * @param diagonals diagonals to band, for example from
+     *                  {@link SeedFilter#diagonal(byte[], Workspace)}
+     * @param width     cells on each side of the band's diagonals
+     * @param workspace buffers owned by the calling thread ({@link Workspace})
+     * @return the best local alignment score inside the final band, scaled
+     */
+    public static int scoreBanded(QueryProfile query, byte[] target, int o, int e,
+                                  int[] diagonals, int width, Workspace workspace) {
+        return BandedSmithWatermanGotoh.score(query, target, o, e, diagonals, width,
+                Integer.MAX_VALUE, workspace);
+    }
+
+    /**
+     * Scores a profiled query against an encoded target inside a band of
+     * diagonals, as far as a threshold test needs. Stops as soon as a cell
+     * reaches the threshold, and stops widening once the band would cover
+     * half the matrix, where the full test is cheaper.
+     *
+     * @param query     profiled query ({@link QueryProfile})
+     * @param target    encoded target
+     * @param o         scaled open gap penalty
+     * @param e         scaled extend gap penalty
+     * @param diagonals diagonals to band
+     * @param width     cells on each side of the band's diagonals
+     * @param threshold scaled minimum score
+     * @param workspace buffers owned by the calling thread ({@link Workspace})
+     * @return a score of at least threshold if the band reaches it, else the
+     * best score of the last band filled, scaled
+     * @see #scoreBanded(QueryProfile, byte[], int, int, int[], int, Workspace)
+     */
+    public static int scoreBanded(QueryProfile query, byte[] target, int o, int e,
+                                  int[] diagonals, int width, int threshold,
+                                  Workspace workspace) {
+        return BandedSmithWatermanGotoh.score(query, target, o, e, diagonals, width,
+                threshold, workspace);
+    }
+
+    /**
+     * Decides whether the Smith-Waterman score of a profiled query and an
+     * encoded target reaches a threshold, trying a band first. A band score
+     * that reaches the threshold settles it, since the banded score is the
+     * score of a real alignment; otherwise the full early-exit test
+     * decides, so the answer is always exact.
+     *
+     * @param query     profiled query ({@link QueryProfile})
+     * @param target    encoded target
+     * @param o         scaled open gap penalty
+     * @param e         scaled extend gap penalty
+     * @param threshold scaled minimum score
+     * @param diagonals diagonals to band
+     * @param width     cells on each side of the band's diagonals
+     * @param workspace buffers owned by the calling thread ({@link Workspace})
+     * @return true if the best local alignment score is at least threshold
+     * @see #scoreBanded
+     */
+    public static boolean alignsAtLeastBanded(QueryProfile query, byte[] target,
+                                              int o, int e, int threshold,
+                                              int[] diagonals, int width,
+                                              Workspace workspace) {
+        if (threshold <= 0) {
+            return true;
+        }
+        if (query.upperBound(target) < threshold) {
+            return false;
+        }
+        if (scoreBanded(query, target, o, e, diagonals, width, threshold, workspace) >= threshold) {
+            return true;
+        }
+        return alignsAtLeast(query, target, o, e, threshold, workspace);
+    }
+
     /**
      * Constructs directions matrix for the traceback
      *
@@ -100,17 +1109,17 @@ public class SmithWatermanGotoh {
      */
     private Cell construct(Sequence s1, Sequence s2, float[][] matrix, float o,
                            float e, byte[] pointers, short[] sizesOfVerticalGaps,
-                           short[] sizesOfHorizontalGaps) {
-        char[] a1 = s1.toArray();
-        char[] a2 = s2.toArray();
+                           short[] sizesOfHorizontalGaps, Workspace workspace) {
+        char[] a1 = workspace.residues1(s1);
+        char[] a2 = workspace.residues2(s2);
 
         int m = s1.length() + 1;
         int n = s2.length() + 1;
 
         float f; // score of alignment x1...xi to y1...yi if xi aligns to yi
-        float[] g = new float[n]; // score if xi aligns to a gap after yi
+        float[] g = workspace.floatGaps(n); // score if xi aligns to a gap after yi
         float h; // score if yi aligns to a gap after xi
-        float[] v = new float[n]; // best score of alignment x1...xi to y1...yi
+        float[] v = workspace.floatScores(n); // best score of alignment x1...xi to y1...yi
         float vDiagonal;
 
         g[0] = Float.NEGATIVE_INFINITY;
@@ -124,7 +1133,7 @@ public class SmithWatermanGotoh {
 
         float similarityScore, g1, g2, h1, h2;
 
-        Cell cell = new Cell();
+        Cell cell = workspace.cell();
 
         for (int i = 1, k = n; i < m; i++, k += n) {
             h = Float.NEGATIVE_INFINITY;
@@ -178,46 +1187,29 @@ public class SmithWatermanGotoh {
 
     /**
      * Returns the alignment of two sequences based on the passed array of
-     * pointers
+     * pointers. The path is kept as a run-length edit script; the aligned
+     * sequences are only built if the alignment is asked for them.
      *
      * @param s1   sequence #1
      * @param s2   sequence #2
-     * @param m    scoring matrix
      * @param cell The cell where the traceback starts.
      * @return {@link Alignment}with the two aligned sequences and alignment
      * score.
      * @see Cell
      * @see Alignment
      */
-    private Alignment traceback(Sequence s1, Sequence s2, Matrix m,
+    private Alignment traceback(Sequence s1, Sequence s2,
                                 byte[] pointers, Cell cell, short[] sizesOfVerticalGaps,
-                                short[] sizesOfHorizontalGaps) {
-        char[] a1 = s1.toArray();
-        char[] a2 = s2.toArray();
-
-        float[][] scores = m.getScores();
-
+                                short[] sizesOfHorizontalGaps, Workspace workspace) {
         int n = s2.length() + 1;
 
         Alignment alignment = new Alignment();
         alignment.setScore(cell.getScore());
 
-        int maxlen = s1.length() + s2.length(); // maximum length after the
-        // aligned sequences
-
-        char[] reversed1 = new char[maxlen]; // reversed sequence #1
-        char[] reversed2 = new char[maxlen]; // reversed sequence #2
-        char[] reversed3 = new char[maxlen]; // reversed markup
-
-        int len1 = 0; // length of sequence #1 after alignment
-        int len2 = 0; // length of sequence #2 after alignment
-        int len3 = 0; // length of the markup line
-
-        int identity = 0; // count of identitcal pairs
-        int similarity = 0; // count of similar pairs
-        int gaps = 0; // count of gaps
-
-        char c1, c2;
+        // Runs in reverse order; at most one per step of the path
+        int[] reversed = workspace.runs(s1.length() + s2.length());
+        int count = 0;
+        int last = -1; // operation of the last run
 
         int i = cell.getRow(); // traceback start row
         int j = cell.getCol(); // traceback start col
@@ -227,54 +1219,45 @@ public class SmithWatermanGotoh {
         // -> stop
 
         while (stillGoing) {
+            int operation, length;
             switch (pointers[k + j]) {
                 case Directions.UP:
-                    for (int l = 0, len = sizesOfVerticalGaps[k + j]; l < len; l++) {
-                        reversed1[len1++] = a1[--i];
-                        reversed2[len2++] = Alignment.GAP;
-                        reversed3[len3++] = Markups.GAP;
-                        k -= n;
-                        gaps++;
-                    }
+                    operation = Alignment.DELETION;
+                    length = sizesOfVerticalGaps[k + j];
+                    i -= length;
+                    k -= length * n;
                     break;
                 case Directions.DIAGONAL:
-                    c1 = a1[--i];
-                    c2 = a2[--j];
+                    operation = Alignment.MATCH;
+                    length = 1;
+                    i--;
+                    j--;
                     k -= n;
-                    reversed1[len1++] = c1;
-                    reversed2[len2++] = c2;
-                    if (c1 == c2) {
-                        reversed3[len3++] = Markups.IDENTITY;
-                        identity++;
-                        similarity++;
-                    } else if (scores[c1][c2] > 0) {
-                        reversed3[len3++] = Markups.SIMILARITY;
-                        similarity++;
-                    } else {
-                        reversed3[len3++] = Markups.MISMATCH;
-                    }
                     break;
                 case Directions.LEFT:
-                    for (int l = 0, len = sizesOfHorizontalGaps[k + j]; l < len; l++) {
-                        reversed1[len1++] = Alignment.GAP;
-                        reversed2[len2++] = a2[--j];
-                        reversed3[len3++] = Markups.GAP;
-                        gaps++;
-                    }
+                    operation = Alignment.INSERTION;
+                    length = sizesOfHorizontalGaps[k + j];
+                    j -= length;
                     break;
-                case Directions.STOP:
+                default:
                     stillGoing = false;
+                    continue;
+            }
+            if (operation == last) {
+                reversed[count - 1] += length << 2;
+            } else {
+                reversed[count++] = length << 2 | operation;
+                last = operation;
             }
         }
 
-        alignment.setSequence1(reverse(reversed1, len1));
+        int[] runs = new int[count];
+        for (int r = 0; r < count; r++) {
+            runs[r] = reversed[count - 1 - r];
+        }
         alignment.setStart1(i);
-        alignment.setSequence2(reverse(reversed2, len2));
         alignment.setStart2(j);
-        alignment.setMarkupLine(reverse(reversed3, len3));
-        alignment.setIdentity(identity);
-        alignment.setGaps(gaps);
-        alignment.setSimilarity(similarity);
+        alignment.setEditScript(s1.getSequence(), s2.getSequence(), runs);
 
         return alignment;
     }
@@ -303,17 +1286,17 @@ public class SmithWatermanGotoh {
     }
 
     /**
-     * Reverses an array of chars
+     * Returns the maximum of 4 int numbers.
      *
-     * @param a
-     * @param len
-     * @return the input array of char reserved
+     * @param a int #1
+     * @param b int #2
+     * @param c int #3
+     * @param d int #4
+     * @return The maximum of a, b, c and d.
      */
-    private static char[] reverse(char[] a, int len) {
-        char[] b = new char[len];
-        for (int i = len - 1, j = 0; i >= 0; i--, j++) {
-            b[j] = a[i];
-        }
-        return b;
+    private static int maximum(int a, int b, int c, int d) {
+        int ab = a > b ? a : b;
+        int cd = c > d ? c : d;
+        return ab > cd ? ab : cd;
     }
 }
\ No newline at end of file
@@ -0,0 +1,328 @@
+package jaligner;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Striped (Farrar) implementation of the Smith-Waterman-Gotoh score using
+ * the Java Vector API. Sequence #1 is laid out across the vector lanes as a
+ * striped query profile and sequence #2 is streamed column by column.
+ * <p>
+ * Scores are first computed in 8-bit lanes; if the best score gets close
+ * enough to the top of the lane that the next column could overflow, the
+ * pair is rescored in 16-bit lanes and then, if needed, in 32-bit lanes.
+ * Requires {@code --add-modules jdk.incubator.vector} at compile and run time.
+ */
+final class StripedSmithWatermanGotoh {
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    /**
+     * Hidden constructor
+     */
+    private StripedSmithWatermanGotoh() {
+        super();
+    }
+
+    /**
+     * Scores a profiled query against an encoded target, with the same
+     * result as {@link SmithWatermanGotoh#score(QueryProfile, byte[], int, int)}.
+     * The striped layouts of the query are kept on the profile and reused.
+     *
+     * @param query profiled query (the striped sequence)
+     * @param a2    encoded target
+     * @param o     scaled open gap penalty
+     * @param e     scaled extend gap penalty
+     * @return the best local alignment score, scaled
+     */
+    static int score(QueryProfile query, byte[] a2, int o, int e) {
+        if (query.length() == 0 || a2.length == 0) {
+            return 0;
+        }
+
+        int[] scores = query.getMatrix().getScores();
+        int high = Integer.MIN_VALUE, low = Integer.MAX_VALUE;
+        for (int s : scores) {
+            high = Math.max(high, s);
+            low = Math.min(low, s);
+        }
+
+        int score = -1;
+        if (o + e <= -Byte.MIN_VALUE && -low <= -Byte.MIN_VALUE) {
+            score = scoreBytes(query, a2, o, e, low, Byte.MAX_VALUE - high);
+        }
+        if (score < 0 && o + e <= -Short.MIN_VALUE && -low <= -Short.MIN_VALUE) {
+            score = scoreShorts(query, a2, o, e, low, Short.MAX_VALUE - high);
+        }
+        if (score < 0) {
+            score = scoreInts(query, a2, o, e, low);
+        }
+        return score;
+    }
+
+    /**
+     * Builds the striped query profile of sequence #1: for every code c,
+     * segLen rows of lanes holding the score of the striped query residue
+     * against c. Lanes past the end of the query score as the lowest matrix
+     * value, which can never raise the best score.
+     */
+    private static int[] profile(QueryProfile query, int lanes, int segLen, int padding) {
+        int size = query.getMatrix().getSize();
+        int[] rows = query.getRows();
+        int[] profile = new int[size * segLen * lanes];
+        for (int c = 0, k = 0; c < size; c++) {
+            for (int s = 0; s < segLen; s++) {
+                for (int lane = 0; lane < lanes; lane++, k++) {
+                    int p = lane * segLen + s;
+                    profile[k] = p < query.length() ? rows[p * size + c] : padding;
+                }
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * 8-bit lanes
+     *
+     * @return the score, or -1 if it could overflow the lanes
+     */
+    private static int scoreBytes(QueryProfile query, byte[] a2, int o, int e,
+                                  int padding, int limit) {
+        int lanes = BYTES.length();
+        int segLen = (query.length() + lanes - 1) / lanes;
+        int width = segLen * lanes;
+
+        byte[] profile = query.stripedBytes;
+        if (profile == null) {
+            int[] wide = profile(query, lanes, segLen, padding);
+            profile = new byte[wide.length];
+            for (int k = 0; k < wide.length; k++) {
+                profile[k] = (byte) wide[k];
+            }
+            query.stripedBytes = profile;
+        }
+
+        byte[] hStore = new byte[width];
+        byte[] hLoad = new byte[width];
+        byte[] eStore = new byte[width];
+        java.util.Arrays.fill(eStore, (byte) -o);
+
+        ByteVector vZero = ByteVector.zero(BYTES);
+        ByteVector vOpen = ByteVector.broadcast(BYTES, (byte) o);
+        ByteVector vExtend = ByteVector.broadcast(BYTES, (byte) e);
+        ByteVector vFloor = ByteVector.broadcast(BYTES, (byte) -o);
+        ByteVector vFirst = vZero.withLane(0, (byte) -o);
+        ByteVector vMax = vZero;
+
+        for (byte c : a2) {
+            int base = c * width;
+            ByteVector vF = vFloor;
+            ByteVector vH = ByteVector.fromArray(BYTES, hStore, width - lanes).unslice(1);
+
+            byte[] swap = hLoad;
+            hLoad = hStore;
+            hStore = swap;
+
+            for (int s = 0, k = 0; s < segLen; s++, k += lanes) {
+                vH = vH.add(ByteVector.fromArray(BYTES, profile, base + k));
+                ByteVector vE = ByteVector.fromArray(BYTES, eStore, k);
+                vH = vH.max(vE).max(vF).max(vZero);
+                vMax = vMax.max(vH);
+                vH.intoArray(hStore, k);
+
+                ByteVector vHOpen = vH.sub(vOpen);
+                vE.sub(vExtend).max(vHOpen).intoArray(eStore, k);
+                vF = vF.sub(vExtend).max(vHOpen);
+
+                vH = ByteVector.fromArray(BYTES, hLoad, k);
+            }
+
+            // Lazy F loop: carry vertical gaps across segment boundaries
+            vF = vF.unslice(1).add(vFirst);
+            for (int s = 0, k = 0; ; ) {
+                vH = ByteVector.fromArray(BYTES, hStore, k);
+                if (!vF.compare(VectorOperators.GT, vH.sub(vOpen)).anyTrue()) {
+                    break;
+                }
+                vH = vH.max(vF);
+                vMax = vMax.max(vH);
+                vH.intoArray(hStore, k);
+                ByteVector.fromArray(BYTES, eStore, k).max(vH.sub(vOpen)).intoArray(eStore, k);
+                vF = vF.sub(vExtend).max(vFloor);
+                k += lanes;
+                if (++s == segLen) {
+                    s = 0;
+                    k = 0;
+                    vF = vF.unslice(1).add(vFirst);
+                }
+            }
+
+            if (vMax.compare(VectorOperators.GT, (byte) limit).anyTrue()) {
+                return -1;
+            }
+        }
+        return vMax.reduceLanes(VectorOperators.MAX);
+    }
+
+    /**
+     * 16-bit lanes
+     *
+     * @return the score, or -1 if it could overflow the lanes
+     */
+    private static int scoreShorts(QueryProfile query, byte[] a2, int o, int e,
+                                   int padding, int limit) {
+        int lanes = SHORTS.length();
+        int segLen = (query.length() + lanes - 1) / lanes;
+        int width = segLen * lanes;
+
+        short[] profile = query.stripedShorts;
+        if (profile == null) {
+            int[] wide = profile(query, lanes, segLen, padding);
+            profile = new short[wide.length];
+            for (int k = 0; k < wide.length; k++) {
+                profile[k] = (short) wide[k];
+            }
+            query.stripedShorts = profile;
+        }
+
+        short[] hStore = new short[width];
+        short[] hLoad = new short[width];
+        short[] eStore = new short[width];
+        java.util.Arrays.fill(eStore, (short) -o);
+
+        ShortVector vZero = ShortVector.zero(SHORTS);
+        ShortVector vOpen = ShortVector.broadcast(SHORTS, (short) o);
+        ShortVector vExtend = ShortVector.broadcast(SHORTS, (short) e);
+        ShortVector vFloor = ShortVector.broadcast(SHORTS, (short) -o);
+        ShortVector vFirst = vZero.withLane(0, (short) -o);
+        ShortVector vMax = vZero;
+
+        for (byte c : a2) {
+            int base = c * width;
+            ShortVector vF = vFloor;
+            ShortVector vH = ShortVector.fromArray(SHORTS, hStore, width - lanes).unslice(1);
+
+            short[] swap = hLoad;
+            hLoad = hStore;
+            hStore = swap;
+
+            for (int s = 0, k = 0; s < segLen; s++, k += lanes) {
+                vH = vH.add(ShortVector.fromArray(SHORTS, profile, base + k));
+                ShortVector vE = ShortVector.fromArray(SHORTS, eStore, k);
+                vH = vH.max(vE).max(vF).max(vZero);
+                vMax = vMax.max(vH);
+                vH.intoArray(hStore, k);
+
+                ShortVector vHOpen = vH.sub(vOpen);
+                vE.sub(vExtend).max(vHOpen).intoArray(eStore, k);
+                vF = vF.sub(vExtend).max(vHOpen);
+
+                vH = ShortVector.fromArray(SHORTS, hLoad, k);
+            }
+
+            // Lazy F loop: carry vertical gaps across segment boundaries
+            vF = vF.unslice(1).add(vFirst);
+            for (int s = 0, k = 0; ; ) {
+                vH = ShortVector.fromArray(SHORTS, hStore, k);
+                if (!vF.compare(VectorOperators.GT, vH.sub(vOpen)).anyTrue()) {
+                    break;
+                }
+                vH = vH.max(vF);
+                vMax = vMax.max(vH);
+                vH.intoArray(hStore, k);
+                ShortVector.fromArray(SHORTS, eStore, k).max(vH.sub(vOpen)).intoArray(eStore, k);
+                vF = vF.sub(vExtend).max(vFloor);
+                k += lanes;
+                if (++s == segLen) {
+                    s = 0;
+                    k = 0;
+                    vF = vF.unslice(1).add(vFirst);
+                }
+            }
+
+            if (vMax.compare(VectorOperators.GT, (short) limit).anyTrue()) {
+                return -1;
+            }
+        }
+        return vMax.reduceLanes(VectorOperators.MAX);
+    }
+
+    /**
+     * 32-bit lanes
+     *
+     * @return the score
+     */
+    private static int scoreInts(QueryProfile query, byte[] a2, int o, int e,
+                                 int padding) {
+        int lanes = INTS.length();
+        int segLen = (query.length() + lanes - 1) / lanes;
+        int width = segLen * lanes;
+
+        int[] profile = query.stripedInts;
+        if (profile == null) {
+            profile = profile(query, lanes, segLen, padding);
+            query.stripedInts = profile;
+        }
+
+        int[] hStore = new int[width];
+        int[] hLoad = new int[width];
+        int[] eStore = new int[width];
+        java.util.Arrays.fill(eStore, -o);
+
+        IntVector vZero = IntVector.zero(INTS);
+        IntVector vOpen = IntVector.broadcast(INTS, o);
+        IntVector vExtend = IntVector.broadcast(INTS, e);
+        IntVector vFloor = IntVector.broadcast(INTS, -o);
+        IntVector vFirst = vZero.withLane(0, -o);
+        IntVector vMax = vZero;
+
+        for (byte c : a2) {
+            int base = c * width;
+            IntVector vF = vFloor;
+            IntVector vH = IntVector.fromArray(INTS, hStore, width - lanes).unslice(1);
+
+            int[] swap = hLoad;
+            hLoad = hStore;
+            hStore = swap;
+
+            for (int s = 0, k = 0; s < segLen; s++, k += lanes) {
+                vH = vH.add(IntVector.fromArray(INTS, profile, base + k));
+                IntVector vE = IntVector.fromArray(INTS, eStore, k);
+                vH = vH.max(vE).max(vF).max(vZero);
+                vMax = vMax.max(vH);
+                vH.intoArray(hStore, k);
+
+                IntVector vHOpen = vH.sub(vOpen);
+                vE.sub(vExtend).max(vHOpen).intoArray(eStore, k);
+                vF = vF.sub(vExtend).max(vHOpen);
+
+                vH = IntVector.fromArray(INTS, hLoad, k);
+            }
+
+            // Lazy F loop: carry vertical gaps across segment boundaries
+            vF = vF.unslice(1).add(vFirst);
+            for (int s = 0, k = 0; ; ) {
+                vH = IntVector.fromArray(INTS, hStore, k);
+                if (!vF.compare(VectorOperators.GT, vH.sub(vOpen)).anyTrue()) {
+                    break;
+                }
+                vH = vH.max(vF);
+                vMax = vMax.max(vH);
+                vH.intoArray(hStore, k);
+                IntVector.fromArray(INTS, eStore, k).max(vH.sub(vOpen)).intoArray(eStore, k);
+                vF = vF.sub(vExtend).max(vFloor);
+                k += lanes;
+                if (++s == segLen) {
+                    s = 0;
+                    k = 0;
+                    vF = vF.unslice(1).add(vFirst);
+                }
+            }
+        }
+        return vMax.reduceLanes(VectorOperators.MAX);
+    }
+}
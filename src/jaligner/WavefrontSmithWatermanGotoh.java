@@ -0,0 +1,183 @@
+package jaligner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tiled wavefront implementation of the Smith-Waterman-Gotoh score. The DP
+ * matrix is cut into square tiles; a tile only depends on the tiles above,
+ * to the left and diagonally above-left, so all tiles on one anti-diagonal
+ * of tiles are independent and run together on a {@link ForkJoinPool}.
+ * <p>
+ * Runs the same integer recurrences as
+ * {@link SmithWatermanGotoh#score(QueryProfile, byte[], int, int)} and gives
+ * the same score. Only worth it for very long pairs, where one alignment
+ * would otherwise keep a single thread busy while the others sit idle.
+ */
+final class WavefrontSmithWatermanGotoh {
+    /**
+     * Rows and columns per tile
+     */
+    static final int TILE = 256;
+
+    private static final int NEGATIVE_INFINITY = Integer.MIN_VALUE / 2;
+
+    private final int[] rows;
+    private final int size;
+    private final byte[] target;
+    private final int o;
+    private final int e;
+    private final int m;
+    private final int n;
+    private final int tileRows;
+    private final int tileCols;
+
+    /**
+     * Bottom row (v, g) of the last tile computed in each column, and right
+     * column (v, h) of the last tile computed in each row
+     */
+    private final int[] topV;
+    private final int[] topG;
+    private final int[] leftV;
+    private final int[] leftH;
+
+    /**
+     * v at the cell diagonally above-left of each tile
+     */
+    private final int[] corners;
+
+    /**
+     * Best score found by each tile
+     */
+    private final int[] best;
+
+    private WavefrontSmithWatermanGotoh(QueryProfile query, byte[] target, int o, int e) {
+        this.rows = query.getRows();
+        this.size = query.getMatrix().getSize();
+        this.target = target;
+        this.o = o;
+        this.e = e;
+        this.m = query.length();
+        this.n = target.length;
+        this.tileRows = (m + TILE - 1) / TILE;
+        this.tileCols = (n + TILE - 1) / TILE;
+
+        topV = new int[n + 1];
+        topG = new int[n + 1];
+        leftV = new int[m + 1];
+        leftH = new int[m + 1];
+        for (int j = 0; j <= n; j++) {
+            topG[j] = NEGATIVE_INFINITY;
+        }
+        for (int i = 0; i <= m; i++) {
+            leftH[i] = NEGATIVE_INFINITY;
+        }
+        corners = new int[(tileRows + 1) * (tileCols + 1)];
+        best = new int[tileRows * tileCols];
+    }
+
+    /**
+     * Scores a profiled query against an encoded target
+     *
+     * @param query  profiled query
+     * @param target encoded target
+     * @param o      scaled open gap penalty
+     * @param e      scaled extend gap penalty
+     * @param pool   pool that runs the tiles
+     * @return the best local alignment score, scaled
+     */
+    static int score(QueryProfile query, byte[] target, int o, int e, ForkJoinPool pool) {
+        if (query.length() == 0 || target.length == 0) {
+            return 0;
+        }
+        WavefrontSmithWatermanGotoh sw = new WavefrontSmithWatermanGotoh(query, target, o, e);
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                sw.run();
+            }
+        });
+
+        int max = 0;
+        for (int b : sw.best) {
+            if (b > max) {
+                max = b;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Runs the anti-diagonals of tiles in order, the tiles of each in parallel
+     */
+    private void run() {
+        List<RecursiveAction> tiles = new ArrayList<>();
+        for (int d = 0; d < tileRows + tileCols - 1; d++) {
+            tiles.clear();
+            for (int bi = Math.max(0, d - tileCols + 1); bi <= Math.min(d, tileRows - 1); bi++) {
+                int tileRow = bi;
+                int tileCol = d - bi;
+                tiles.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        tile(tileRow, tileCol);
+                    }
+                });
+            }
+            if (tiles.size() == 1) {
+                tiles.get(0).invoke();
+            } else {
+                ForkJoinTask.invokeAll(tiles);
+            }
+        }
+    }
+
+    /**
+     * Computes one tile from the boundaries left by its neighbours, and
+     * leaves its own bottom row, right column and corner for the next ones
+     */
+    private void tile(int bi, int bj) {
+        int i0 = bi * TILE + 1, i1 = Math.min(i0 + TILE, m + 1);
+        int j0 = bj * TILE + 1, j1 = Math.min(j0 + TILE, n + 1);
+
+        int max = 0;
+        int diagonal = corners[bi * (tileCols + 1) + bj];
+        for (int i = i0, row = (i0 - 1) * size; i < i1; i++, row += size) {
+            int vDiagonal = diagonal;
+            int vLeft = leftV[i];
+            int h = leftH[i];
+            diagonal = vLeft;
+            for (int j = j0; j < j1; j++) {
+                int f = vDiagonal + rows[row + target[j - 1]];
+
+                int g1 = topG[j] - e;
+                int g2 = topV[j] - o;
+                int g = g1 > g2 ? g1 : g2;
+                topG[j] = g;
+
+                int h1 = h - e;
+                int h2 = vLeft - o;
+                h = h1 > h2 ? h1 : h2;
+
+                vDiagonal = topV[j];
+                int v = f > g ? f : g;
+                v = v > h ? v : h;
+                v = v > 0 ? v : 0;
+                topV[j] = v;
+                vLeft = v;
+
+                if (v > max) {
+                    max = v;
+                }
+            }
+            leftV[i] = vLeft;
+            leftH[i] = h;
+        }
+
+        corners[(bi + 1) * (tileCols + 1) + bj + 1] = topV[j1 - 1];
+        best[bi * tileCols + bj] = max;
+    }
+}
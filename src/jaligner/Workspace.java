@@ -0,0 +1,216 @@
+package jaligner;
+
+/**
+ * Reusable buffers for {@link SmithWatermanGotoh}. A workspace is not thread
+ * safe: hold one per thread (for example in a {@link ThreadLocal}) and pass it
+ * to the alignment overloads that accept it. Buffers grow geometrically and
+ * are never shrunk, so once a workspace has seen the largest pair of a run,
+ * further alignments allocate no DP storage.
+ */
+public class Workspace {
+    /**
+     * Traceback directions, m * n
+     */
+    private byte[] pointers = new byte[0];
+
+    /**
+     * Sizes of vertical and horizontal gaps, m * n each
+     */
+    private short[] sizesOfVerticalGaps = new short[0];
+    private short[] sizesOfHorizontalGaps = new short[0];
+
+    /**
+     * Rows of the float recurrences, and the remaining-gain bound
+     */
+    private float[] floatGaps = new float[0];
+    private float[] floatScores = new float[0];
+    private float[] floatRemaining = new float[0];
+
+    /**
+     * Rows of the integer recurrences, and the remaining-gain bound
+     */
+    private int[] intGaps = new int[0];
+    private int[] intScores = new int[0];
+    private int[] remaining = new int[0];
+
+    /**
+     * Per-diagonal state of the seed filter
+     */
+    private int[] diagonals = new int[0];
+
+    /**
+     * Codes present in the current target
+     */
+    private boolean[] present = new boolean[0];
+
+    /**
+     * Band edge flags of the banded kernel
+     */
+    private boolean[] edges = new boolean[0];
+
+    /**
+     * Residues of the current sequences and the reversed edit script of the
+     * traceback
+     */
+    private char[] residues1 = new char[0];
+    private char[] residues2 = new char[0];
+    private int[] runs = new int[0];
+
+    /**
+     * Traceback start cell
+     */
+    private final Cell cell = new Cell();
+
+    /**
+     * Constructor
+     */
+    public Workspace() {
+        super();
+    }
+
+    /**
+     * Returns the number of bytes currently held by the buffers
+     *
+     * @return buffer footprint in bytes
+     */
+    public long getSize() {
+        return pointers.length
+                + 2L * (sizesOfVerticalGaps.length + sizesOfHorizontalGaps.length)
+                + 4L * (floatGaps.length + floatScores.length + floatRemaining.length)
+                + 4L * (intGaps.length + intScores.length + remaining.length)
+                + 4L * diagonals.length
+                + present.length + edges.length
+                + 2L * (residues1.length + residues2.length)
+                + 4L * runs.length;
+    }
+
+    /**
+     * Drops the traceback directions and gap sizes, the buffers that grow
+     * with the product of the sequence lengths, keeping the rest
+     */
+    void releaseTraceback() {
+        pointers = new byte[0];
+        sizesOfVerticalGaps = new short[0];
+        sizesOfHorizontalGaps = new short[0];
+    }
+
+    /**
+     * Returns a capacity of at least needed, growing the current one by half
+     */
+    private static int grow(int current, int needed) {
+        long capacity = Math.max(needed, current + (current >> 1));
+        return (int) Math.min(capacity, Integer.MAX_VALUE - 8);
+    }
+
+    byte[] pointers(int size) {
+        if (pointers.length < size) {
+            pointers = new byte[grow(pointers.length, size)];
+        }
+        return pointers;
+    }
+
+    short[] sizesOfVerticalGaps(int size) {
+        if (sizesOfVerticalGaps.length < size) {
+            sizesOfVerticalGaps = new short[grow(sizesOfVerticalGaps.length, size)];
+        }
+        return sizesOfVerticalGaps;
+    }
+
+    short[] sizesOfHorizontalGaps(int size) {
+        if (sizesOfHorizontalGaps.length < size) {
+            sizesOfHorizontalGaps = new short[grow(sizesOfHorizontalGaps.length, size)];
+        }
+        return sizesOfHorizontalGaps;
+    }
+
+    float[] floatGaps(int size) {
+        if (floatGaps.length < size) {
+            floatGaps = new float[grow(floatGaps.length, size)];
+        }
+        return floatGaps;
+    }
+
+    float[] floatScores(int size) {
+        if (floatScores.length < size) {
+            floatScores = new float[grow(floatScores.length, size)];
+        }
+        return floatScores;
+    }
+
+    float[] floatRemaining(int size) {
+        if (floatRemaining.length < size) {
+            floatRemaining = new float[grow(floatRemaining.length, size)];
+        }
+        return floatRemaining;
+    }
+
+    int[] intGaps(int size) {
+        if (intGaps.length < size) {
+            intGaps = new int[grow(intGaps.length, size)];
+        }
+        return intGaps;
+    }
+
+    int[] intScores(int size) {
+        if (intScores.length < size) {
+            intScores = new int[grow(intScores.length, size)];
+        }
+        return intScores;
+    }
+
+    int[] remaining(int size) {
+        if (remaining.length < size) {
+            remaining = new int[grow(remaining.length, size)];
+        }
+        return remaining;
+    }
+
+    int[] diagonals(int size) {
+        if (diagonals.length < size) {
+            diagonals = new int[grow(diagonals.length, size)];
+        }
+        return diagonals;
+    }
+
+    boolean[] present(int size) {
+        if (present.length < size) {
+            present = new boolean[grow(present.length, size)];
+        }
+        return present;
+    }
+
+    boolean[] edges(int size) {
+        if (edges.length < size) {
+            edges = new boolean[grow(edges.length, size)];
+        }
+        return edges;
+    }
+
+    char[] residues1(Sequence s) {
+        if (residues1.length < s.length()) {
+            residues1 = new char[grow(residues1.length, s.length())];
+        }
+        s.getSequence().getChars(0, s.length(), residues1, 0);
+        return residues1;
+    }
+
+    char[] residues2(Sequence s) {
+        if (residues2.length < s.length()) {
+            residues2 = new char[grow(residues2.length, s.length())];
+        }
+        s.getSequence().getChars(0, s.length(), residues2, 0);
+        return residues2;
+    }
+
+    int[] runs(int size) {
+        if (runs.length < size) {
+            runs = new int[grow(runs.length, size)];
+        }
+        return runs;
+    }
+
+    Cell cell() {
+        cell.set(0, 0, Float.NEGATIVE_INFINITY);
+        return cell;
+    }
+}
@@ -0,0 +1,148 @@
+package jaligner.matrix;
+
+/**
+ * Integer form of a {@link Matrix} over a fixed alphabet. Residues are
+ * encoded to small codes and scores are held in a flat table, scaled so that
+ * the scores and the gap penalties used with them are whole numbers.
+ * Characters outside the alphabet share one extra code that scores 0, the
+ * same as the empty entries of the float table.
+ */
+public class IntegerMatrix {
+    /**
+     * Matrix id (or name)
+     */
+    private final String id;
+
+    /**
+     * Scale factor applied to every score and penalty
+     */
+    private final int scale;
+
+    /**
+     * Number of codes, including the code for unknown residues
+     */
+    private final int size;
+
+    /**
+     * Code of each character
+     */
+    private final byte[] codes = new byte[Character.MAX_VALUE + 1];
+
+    /**
+     * Scores, indexed by code1 * size + code2
+     */
+    private final int[] scores;
+
+    /**
+     * Constructor
+     *
+     * @param matrix   the float matrix to convert
+     * @param alphabet the residues to encode, in code order
+     * @param scale    scale factor making every score a whole number
+     */
+    public IntegerMatrix(Matrix matrix, char[] alphabet, int scale) {
+        this.id = matrix.getId();
+        this.scale = scale;
+        this.size = alphabet.length + 1;
+        this.scores = new int[size * size];
+
+        java.util.Arrays.fill(codes, (byte) alphabet.length);
+        for (int a = 0; a < alphabet.length; a++) {
+            codes[alphabet[a]] = (byte) a;
+            for (int b = 0; b < alphabet.length; b++) {
+                scores[a * size + b] = scale(matrix.getScore(alphabet[a], alphabet[b]));
+            }
+        }
+    }
+
+    /**
+     * @return Returns the id.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return Returns the scale factor.
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * @return Returns the number of codes.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return Returns the flat score table.
+     */
+    public int[] getScores() {
+        return scores;
+    }
+
+    /**
+     * @param a code #1
+     * @param b code #2
+     * @return score
+     */
+    public int getScore(int a, int b) {
+        return scores[a * size + b];
+    }
+
+    /**
+     * Scales a score or gap penalty to this matrix's integer units
+     *
+     * @param value the float value
+     * @return the scaled value
+     * @throws IllegalArgumentException if the scaled value is not a whole number
+     */
+    public int scale(float value) {
+        float scaled = value * scale;
+        int result = Math.round(scaled);
+        if (result != scaled) {
+            throw new IllegalArgumentException(value + " is not a multiple of 1/" + scale);
+        }
+        return result;
+    }
+
+    /**
+     * Converts a scaled score back to the float units of the source matrix
+     *
+     * @param value the scaled value
+     * @return the float value
+     */
+    public float unscale(int value) {
+        return value / (float) scale;
+    }
+
+    /**
+     * Encodes a sequence of residues
+     *
+     * @param residues residue characters
+     * @return codes
+     */
+    public byte[] encode(char[] residues) {
+        byte[] encoded = new byte[residues.length];
+        for (int i = 0; i < residues.length; i++) {
+            encoded[i] = codes[residues[i]];
+        }
+        return encoded;
+    }
+
+    /**
+     * Encodes a sequence of residues held as ASCII bytes
+     *
+     * @param residues residue bytes
+     * @return codes
+     */
+    public byte[] encode(byte[] residues) {
+        byte[] encoded = new byte[residues.length];
+        for (int i = 0; i < residues.length; i++) {
+            encoded[i] = codes[residues[i] & 0xff];
+        }
+        return encoded;
+    }
+}
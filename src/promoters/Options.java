@@ -0,0 +1,264 @@
+package promoters;
+
+import jaligner.KernelSelector;
+import jaligner.SmithWatermanGotoh;
+
+import java.util.*;
+
+// Command line options of Parallel and Runner: which versions run on how many
+// threads, and the features every run is set up with
+public class Options {
+    // Runs
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+    int startThread = maxThreads;
+    int iterations = 1;
+    int time = 1;
+    int startDelay = 0;
+    List<Parallel.Version> versions = new ArrayList<>();
+
+    // Features, all off by default
+    String alignmentFile = null;
+    String cacheFile = null;
+    long cacheBytes = 64L << 20;
+    long memoryBudget = 0;
+    int bandWidth = 0;
+    int topHits = 0;
+    String sweepFile = null;
+    boolean packing = false;
+    int parseThreads = 0;
+    float[] sweepCutoffs = null;
+    double[] sweepThresholds = null;
+    boolean seeds = false, seedCheck = false;
+    boolean baseline = false;
+
+    public static Options Parse(String[] args) {
+        Options options = new Options();
+
+        // Based off args can choose iterations to use, threads to start from
+        for (int i = 0; i < args.length; i++) {
+            // Add all versions
+            if (args[i].equals("-all")) {
+                System.out.println("-all detected");
+                options.startThread = 0;
+            }
+
+            // How long to wait before the first run
+            if (args[i].equals("-sd")) {
+                options.startDelay = Integer.parseInt(args[++i]);
+                System.out.println(String.format("-sd %d detected", options.startDelay));
+            }
+
+            // Add a version
+            if (args[i].equals("+vall")) {
+                System.out.println("+vall detected");
+                options.versions = new ArrayList<>(Arrays.asList(Parallel.Version.values()));
+            }
+            else if (args[i].contains("+v")) {
+                int version = Integer.parseInt(args[i].substring(args[i].length() - 1));
+                System.out.println(String.format("+v%d detected", version));
+                options.versions.add(Parallel.Version.values()[version - 1]);
+            }
+
+            // How many iteratiosn
+            if (args[i].equals("-i")) {
+                options.iterations = Integer.parseInt(args[++i]);
+                System.out.println(String.format("-i %d detected", options.iterations));
+            }
+
+            // How long to wait between runs
+            if (args[i].equals("-t")) {
+                options.time = Integer.parseInt(args[++i]);
+                System.out.println(String.format("-t %d detected", options.time));
+            }
+
+            // Pairs with at least this many DP cells are split into tiles
+            if (args[i].equals("-w")) {
+                SmithWatermanGotoh.setWavefrontCells(Long.parseLong(args[++i]));
+                System.out.println(String.format("-w %d detected", SmithWatermanGotoh.getWavefrontCells()));
+            }
+
+            // Seed-and-extend prefilter, and its recall check against the exact path
+            if (args[i].equals("-seed")) {
+                options.seeds = true;
+                System.out.println("-seed detected");
+            }
+            if (args[i].equals("-seedcheck")) {
+                options.seeds = options.seedCheck = true;
+                System.out.println("-seedcheck detected");
+            }
+
+            // Hold the results to the original float alignment of every pair
+            if (args[i].equals("-baseline")) {
+                options.baseline = true;
+                System.out.println("-baseline detected");
+            }
+
+            // Persistent score cache
+            if (args[i].equals("-cache")) {
+                options.cacheFile = args[++i];
+                System.out.println(String.format("-cache %s detected", options.cacheFile));
+            }
+
+            // Size of a new cache file in megabytes, an existing one keeps its own
+            if (args[i].equals("-cachesize")) {
+                options.cacheBytes = Long.parseLong(args[++i]) << 20;
+                System.out.println(String.format("-cachesize %d detected", options.cacheBytes >> 20));
+            }
+
+            // Write the alignments of homologous pairs to a report
+            if (args[i].equals("-a")) {
+                options.alignmentFile = args[++i];
+                System.out.println(String.format("-a %s detected", options.alignmentFile));
+            }
+
+            // One-to-many kernel instead of the calibrated one
+            if (args[i].equals("-k")) {
+                System.setProperty(KernelSelector.OVERRIDE, args[++i]);
+                System.out.println(String.format("-k %s detected", args[i]));
+            }
+
+            // Banded first pass of the per-pair threshold test
+            if (args[i].equals("-band")) {
+                options.bandWidth = Integer.parseInt(args[++i]);
+                System.out.println(String.format("-band %d detected", options.bandWidth));
+            }
+
+            // Assign each gene to its K best references only
+            if (args[i].equals("-top")) {
+                options.topHits = Integer.parseInt(args[++i]);
+                System.out.println(String.format("-top %d detected", options.topHits));
+            }
+
+            // Consensus grid over homology cutoffs and sigma70 thresholds, in one pass
+            if (args[i].equals("-sweep")) {
+                options.sweepFile = args[++i];
+                System.out.println(String.format("-sweep %s detected", options.sweepFile));
+            }
+            if (args[i].equals("-cutoffs")) {
+                String[] values = args[++i].split(",");
+                options.sweepCutoffs = new float[values.length];
+                for (int k = 0; k < values.length; k++)
+                    options.sweepCutoffs[k] = Float.parseFloat(values[k]);
+                System.out.println(String.format("-cutoffs %s detected", Arrays.toString(options.sweepCutoffs)));
+            }
+            if (args[i].equals("-thresholds")) {
+                options.sweepThresholds = Arrays.stream(args[++i].split(",")).mapToDouble(Double::parseDouble).toArray();
+                System.out.println(String.format("-thresholds %s detected", Arrays.toString(options.sweepThresholds)));
+            }
+
+            // Hold genomes at two bits per base
+            if (args[i].equals("-pack")) {
+                options.packing = true;
+                System.out.println("-pack detected");
+            }
+
+            // Threads that parse the GenBank files
+            if (args[i].equals("-pt")) {
+                options.parseThreads = Integer.parseInt(args[++i]);
+                System.out.println(String.format("-pt %d detected", options.parseThreads));
+            }
+
+            // Memory budget of the report's alignments, in megabytes
+            if (args[i].equals("-m")) {
+                options.memoryBudget = Long.parseLong(args[++i]) << 20;
+                System.out.println(String.format("-m %d detected", options.memoryBudget >> 20));
+            }
+        }
+
+        // Make sure args had something
+        if (options.versions.isEmpty())
+            options.versions = Arrays.asList(Parallel.Version.values());
+
+        // The budget only bounds the report's alignments
+        if (options.memoryBudget > 0 && options.alignmentFile == null)
+            System.out.println("-m bounds the -a alignments, none are built without it");
+
+        // Top hits keep fewer pairs than the baseline aligns
+        if (options.baseline && options.topHits > 0) {
+            System.out.println("-top keeps the best pairs only, -baseline ignored");
+            options.baseline = false;
+        }
+
+        // Only v3 sees a gene against the whole library at once
+        if (options.sweepFile != null && options.topHits > 0) {
+            System.out.println("-sweep scores every pair, -top ignored");
+            options.topHits = 0;
+        }
+        if ((options.topHits > 0 || options.sweepFile != null)
+                && !options.versions.equals(Collections.singletonList(Parallel.Version.VERSION3))) {
+            System.out.println(String.format("%s runs VERSION3 only", options.topHits > 0 ? "-top" : "-sweep"));
+            options.versions = Collections.singletonList(Parallel.Version.VERSION3);
+        }
+
+        // Sort
+        options.versions = new ArrayList<>(new HashSet<>(options.versions));
+        Collections.sort(options.versions);
+        System.out.println();
+        return options;
+    }
+
+    // A version set up with the chosen features
+    public Parallel Create(Parallel.Version version, String referenceFile, String dir) {
+        Parallel parallel;
+        switch (version) {
+            case VERSION1:
+                parallel = new Parallel_v1(referenceFile, dir);
+                break;
+            case VERSION2:
+                parallel = new Parallel_v2(referenceFile, dir);
+                break;
+            case VERSION3:
+                parallel = new Parallel_v3(referenceFile, dir);
+                break;
+
+            default:
+                throw new IllegalStateException("Unexpected value: " + version);
+        }
+
+        if (alignmentFile != null)
+            parallel.ExportAlignments(alignmentFile);
+        if (seeds)
+            parallel.UseSeeds(seedCheck);
+        if (cacheFile != null)
+            parallel.UseCache(cacheFile, cacheBytes);
+        if (memoryBudget > 0)
+            parallel.UseMemoryBudget(memoryBudget);
+        if (bandWidth > 0)
+            parallel.UseBand(bandWidth);
+        if (topHits > 0)
+            parallel.UseTopHits(topHits);
+        if (sweepFile != null)
+            parallel.UseSweep(sweepFile, sweepCutoffs, sweepThresholds);
+        if (packing)
+            parallel.UsePacking();
+        if (parseThreads > 0)
+            parallel.UseParseThreads(parseThreads);
+        return parallel;
+    }
+
+    // The baseline, with the features it has
+    public Sequential Create(String referenceFile, String dir) {
+        Sequential sequential = new Sequential(referenceFile, dir);
+        if (cacheFile != null)
+            sequential.UseCache(cacheFile, cacheBytes);
+        if (topHits > 0)
+            sequential.UseTopHits(topHits);
+        return sequential;
+    }
+
+    // Reports of the features in use
+    public void PrintReports(Parallel parallel) {
+        if (seeds)
+            System.out.println(parallel.SeedReport());
+        if (cacheFile != null)
+            System.out.println(parallel.CacheReport());
+        if (alignmentFile != null || memoryBudget > 0)
+            System.out.println(parallel.MemoryReport());
+        if (bandWidth > 0)
+            System.out.println(parallel.BandReport());
+        if (topHits > 0)
+            System.out.println(parallel.TopHitsReport());
+        if (sweepFile != null)
+            System.out.println(parallel.SweepReport());
+    }
+}
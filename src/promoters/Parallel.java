@@ -1,19 +1,72 @@
 package promoters;
 
 import edu.au.jacobi.pattern.Match;
+import jaligner.Alignment;
 import jaligner.BLOSUM62;
+import jaligner.KernelSelector;
+import jaligner.MemoryBudget;
+import jaligner.QueryProfile;
+import jaligner.ScoreCache;
+import jaligner.SeedFilter;
 import jaligner.Sequence;
 import jaligner.SmithWatermanGotoh;
+import jaligner.Workspace;
+import jaligner.matrix.IntegerMatrix;
 import jaligner.matrix.Matrix;
 import qut.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
 public abstract  class Parallel {
     protected String referenceFile;
     protected String dir;
     protected final Matrix BLOSUM_62 = BLOSUM62.Load();
+    protected final IntegerMatrix BLOSUM_62_INT = BLOSUM62.LoadInteger();
+    protected final int GAP_OPEN = BLOSUM_62_INT.scale(10f);
+    protected final int GAP_EXTEND = BLOSUM_62_INT.scale(0.5f);
+    protected final int HOMOLOGY_THRESHOLD = BLOSUM_62_INT.scale(60);
+    protected final ThreadLocal<Workspace> workspace = ThreadLocal.withInitial(Workspace::new);
+    protected final LongAdder pairs = new LongAdder();
+    protected final LongAdder pruned = new LongAdder();
+    protected final int SEED_WORD = BLOSUM_62_INT.scale(11);
+    protected final int SEED_XDROP = BLOSUM_62_INT.scale(20);
+    protected final int SEED_TRIGGER = BLOSUM_62_INT.scale(35);
+    protected boolean seeding;
+    protected boolean validating;
+    protected final LongAdder seeded = new LongAdder();
+    protected final LongAdder filtered = new LongAdder();
+    protected final LongAdder exactHits = new LongAdder();
+    protected final LongAdder seedHits = new LongAdder();
+    protected String alignmentFile;
+    protected final long CACHE_PARAMS = ScoreCache.params(BLOSUM_62_INT.getId(), BLOSUM_62_INT.getScale(), GAP_OPEN, GAP_EXTEND);
+    protected String cacheFile;
+    protected long cacheBytes;
+    protected ScoreCache cache;
+    protected final LongAdder cacheHits = new LongAdder();
+    protected final LongAdder cacheMisses = new LongAdder();
+    protected int bandWidth;
+    protected final int NO_DIAGONAL = Integer.MIN_VALUE;
+    protected final LongAdder bandTried = new LongAdder();
+    protected final LongAdder bandHits = new LongAdder();
+    protected TopHitsSearch top;
+    protected String sweepFile;
+    protected boolean packing;
+    protected int parseThreads;
+    protected float[] sweepCutoffs = {40, 45, 50, 55, 60, 65, 70, 75, 80};
+    protected double[] sweepThresholds = {0.6, 0.65, 0.7, 0.75, 0.8};
+    protected final Queue<String> alignments = new ConcurrentLinkedQueue<>();
+    protected MemoryBudget budget = new MemoryBudget(Runtime.getRuntime().maxMemory() / 4);
     protected byte[] complement = new byte['z'];
     {
         complement['C'] = 'G'; complement['c'] = 'g'; complement['G'] = 'C'; complement['g'] = 'c';
@@ -35,8 +88,311 @@ public abstract  class Parallel {
                     list.add(file.getPath());
     }
 
-    protected boolean Homologous(PeptideSequence A, PeptideSequence B) {
-        return SmithWatermanGotoh.align(new Sequence(A.toString()), new Sequence(B.toString()), BLOSUM_62, 10f, 0.5f).calculateScore() >= 60;
+    // Pairs whose score bound is already below the threshold skip the DP.
+    // With seeding on, the rest must also have a seed that extends to the
+    // trigger score; when validating, both paths run and the exact one decides.
+    // With a band set, the one seed scan also finds the diagonal to band.
+    // The gene comes encoded, once for all the references it meets
+    protected boolean Homologous(byte[] sequence, QueryProfile B, SeedFilter seeds) {
+        pairs.increment();
+        if (B.upperBound(sequence) < HOMOLOGY_THRESHOLD) {
+            pruned.increment();
+            return false;
+        }
+        if (seeds == null)
+            return AlignsAtLeast(B, sequence, NO_DIAGONAL);
+
+        seeded.increment();
+        int diagonal = NO_DIAGONAL;
+        boolean passes;
+        if (bandWidth > 0) {
+            diagonal = seeds.diagonal(sequence, workspace.get());
+            passes = diagonal != NO_DIAGONAL;
+        } else {
+            passes = seeds.passes(sequence, workspace.get());
+        }
+        if (!passes)
+            filtered.increment();
+        if (!validating)
+            return passes && AlignsAtLeast(B, sequence, diagonal);
+
+        boolean homologous = AlignsAtLeast(B, sequence, diagonal);
+        if (homologous) {
+            exactHits.increment();
+            if (passes)
+                seedHits.increment();
+        }
+        return homologous;
+    }
+
+    // One gene against the whole library, see Scores
+    protected boolean[] Homologous(PeptideSequence A, ReferenceLibrary library) {
+        if (top != null)
+            return top.search(BLOSUM_62_INT.encode(A.bytes), library, !validating, cache, CACHE_PARAMS, workspace.get());
+        int[] scores = Scores(A, library, HOMOLOGY_THRESHOLD);
+        boolean[] homologous = new boolean[library.size()];
+        for (int i = 0; i < library.size(); i++)
+            homologous[i] = scores[i] >= HOMOLOGY_THRESHOLD;
+
+        if (validating) {
+            byte[] sequence = BLOSUM_62_INT.encode(A.bytes);
+            for (int i = 0; i < library.size(); i++) {
+                if (homologous[i] && library.seeds(i) != null) {
+                    exactHits.increment();
+                    if (library.seeds(i).passes(sequence, workspace.get()))
+                        seedHits.increment();
+                }
+            }
+        }
+        return homologous;
+    }
+
+    // Exact scores of one gene against the whole library, or -1 where the
+    // score is known to be below floor. The bound, seeds and cache still
+    // decide pair by pair; the pairs left over are scored in one batch with
+    // the gene as the query, which the symmetric matrix allows
+    protected int[] Scores(PeptideSequence A, ReferenceLibrary library, int floor) {
+        byte[] sequence = BLOSUM_62_INT.encode(A.bytes);
+        long gene = cache == null ? 0 : ScoreCache.hash(sequence);
+        int[] scores = new int[library.size()];
+        Arrays.fill(scores, -1);
+        int[] rest = new int[library.size()];
+        int count = 0;
+        for (int i = 0; i < library.size(); i++) {
+            QueryProfile B = library.profiles[i];
+            pairs.increment();
+            if (B.upperBound(sequence) < floor) {
+                pruned.increment();
+                continue;
+            }
+            SeedFilter seeds = library.seeds(i);
+            if (seeds != null) {
+                seeded.increment();
+                if (!seeds.passes(sequence, workspace.get())) {
+                    filtered.increment();
+                    if (!validating)
+                        continue;
+                }
+            }
+            if (cache != null) {
+                int cached = cache.get(ScoreCache.hash(B.getResidues()), gene, CACHE_PARAMS);
+                if (ScoreCache.decides(cached, floor)) {
+                    cacheHits.increment();
+                    if (cached >= floor)
+                        scores[i] = cached;
+                    continue;
+                }
+                cacheMisses.increment();
+            }
+            rest[count++] = i;
+        }
+
+        if (count > 0) {
+            byte[][] targets = new byte[count][];
+            for (int k = 0; k < count; k++)
+                targets[k] = library.profiles[rest[k]].getResidues();
+            int[] batch = SmithWatermanGotoh.score(new QueryProfile(sequence, BLOSUM_62_INT), targets, GAP_OPEN, GAP_EXTEND);
+            for (int k = 0; k < count; k++) {
+                scores[rest[k]] = batch[k];
+                if (cache != null)
+                    cache.put(ScoreCache.hash(targets[k]), gene, CACHE_PARAMS, batch[k]);
+            }
+        }
+        return scores;
+    }
+
+    // Assign each gene to its K best references only, off by default
+    public void UseTopHits(int k) {
+        this.top = new TopHitsSearch(k, BLOSUM_62_INT, GAP_OPEN, GAP_EXTEND, HOMOLOGY_THRESHOLD);
+    }
+
+    public String TopHitsReport() {
+        return top == null ? "Top hits off" : top.report();
+    }
+
+    // Threshold test through the persistent score cache when one is open.
+    // Only the verdict is stored, that the score is at least or below the
+    // threshold, which is all the early-exit test finds out
+    protected boolean AlignsAtLeast(QueryProfile B, byte[] sequence, int diagonal) {
+        if (cache == null)
+            return Decide(B, sequence, diagonal);
+
+        long reference = ScoreCache.hash(B.getResidues()), gene = ScoreCache.hash(sequence);
+        int cached = cache.get(reference, gene, CACHE_PARAMS);
+        boolean reaches = ScoreCache.reaches(cached, HOMOLOGY_THRESHOLD);
+        if (reaches || ScoreCache.decides(cached, HOMOLOGY_THRESHOLD)) {
+            cacheHits.increment();
+            return reaches;
+        }
+        cacheMisses.increment();
+        boolean homologous = Decide(B, sequence, diagonal);
+        cache.put(reference, gene, CACHE_PARAMS, homologous
+                ? ScoreCache.atLeast(HOMOLOGY_THRESHOLD)
+                : ScoreCache.below(HOMOLOGY_THRESHOLD));
+        return homologous;
+    }
+
+    // The DP threshold test. With a band set and a seed diagonal found, a
+    // band around it is tried first: reaching the threshold inside the band
+    // settles the pair, anything else goes to the full test
+    protected boolean Decide(QueryProfile B, byte[] sequence, int diagonal) {
+        if (bandWidth > 0 && diagonal != NO_DIAGONAL) {
+            bandTried.increment();
+            if (SmithWatermanGotoh.scoreBanded(B, sequence, GAP_OPEN, GAP_EXTEND, new int[]{diagonal},
+                    bandWidth, HOMOLOGY_THRESHOLD, workspace.get()) >= HOMOLOGY_THRESHOLD) {
+                bandHits.increment();
+                return true;
+            }
+        }
+        return SmithWatermanGotoh.alignsAtLeast(B, sequence, GAP_OPEN, GAP_EXTEND, HOMOLOGY_THRESHOLD, workspace.get());
+    }
+
+    // Banded first pass of the DP around seed diagonals, off by default
+    public void UseBand(int width) {
+        this.bandWidth = width;
+    }
+
+    public String BandReport() {
+        if (bandWidth == 0)
+            return "Band off";
+        long total = bandTried.sum(), hits = bandHits.sum();
+        return String.format("Band of %d settled %d of %d alignments (%.1f%%)", bandWidth, hits, total, total == 0 ? 0 : 100.0 * hits / total);
+    }
+
+    // Homology cutoffs times sigma70 thresholds, each with its own consensus,
+    // written to a grid report; off by default. Each pair is scored once
+    public void UseSweep(String file, float[] cutoffs, double[] thresholds) {
+        this.sweepFile = file;
+        if (cutoffs != null)
+            this.sweepCutoffs = cutoffs;
+        if (thresholds != null)
+            this.sweepThresholds = thresholds;
+    }
+
+    public String SweepReport() {
+        return sweepFile == null ? "Sweep off" : "Sweep runs in VERSION3 only";
+    }
+
+    // Genomes at two bits per base, off by default; v2 and v3 hold every
+    // genome of the run at once
+    public void UsePacking() {
+        this.packing = true;
+    }
+
+    // Threads that parse the GenBank files, the run's thread count by default
+    public void UseParseThreads(int threads) {
+        this.parseThreads = threads;
+    }
+
+    // Score cache file, off by default, and the size it is created at
+    public void UseCache(String file, long maxBytes) {
+        this.cacheFile = file;
+        this.cacheBytes = maxBytes;
+    }
+
+    public String CacheReport() {
+        if (cacheFile == null)
+            return "Cache off";
+        long hits = cacheHits.sum(), total = hits + cacheMisses.sum();
+        if (top != null) {
+            hits += top.getCacheHits();
+            total += top.getCacheHits() + top.getCacheMisses();
+        }
+        return String.format("Cache answered %d of %d alignments (%.1f%%)", hits, total, total == 0 ? 0 : 100.0 * hits / total);
+    }
+
+    // Seed-and-extend prefilter, off by default; validate runs the exact path
+    // as well and reports recall, keeping the exact results
+    public void UseSeeds(boolean validate) {
+        this.seeding = true;
+        this.validating = validate;
+    }
+
+    protected ReferenceLibrary LoadLibrary() throws IOException {
+        ReferenceLibrary library = new ReferenceLibrary(ParseReferenceGenes(referenceFile), BLOSUM_62_INT);
+        if (seeding)
+            library.buildSeeds(SEED_WORD, SEED_XDROP, SEED_TRIGGER);
+        return library;
+    }
+
+    // Kernel of the one-to-many scores, picked once before the timed runs
+    public void SelectKernel() throws IOException {
+        List<String> files = ListGenbankFiles(dir);
+        new ReferenceLibrary(ParseReferenceGenes(referenceFile), BLOSUM_62_INT)
+                .selectKernel(files.isEmpty() ? null : files.get(0), GAP_OPEN, GAP_EXTEND, HOMOLOGY_THRESHOLD);
+    }
+
+    public String SeedReport() {
+        if (!seeding)
+            return "Seeds off";
+        long total = seeded.sum(), skipped = filtered.sum();
+        String report = String.format("Seeds filtered %d of %d pairs (%.1f%%)", skipped, total, total == 0 ? 0 : 100.0 * skipped / total);
+        if (validating) {
+            long exact = exactHits.sum(), found = seedHits.sum();
+            report += String.format(", recall %d/%d (%.2f%%)", found, exact, exact == 0 ? 100.0 : 100.0 * found / exact);
+        }
+        return report;
+    }
+
+    public String PruningReport() {
+        long total = pairs.sum(), skipped = pruned.sum();
+        if (top != null) {
+            total += top.getPairs();
+            skipped += top.getPruned();
+        }
+        return String.format("Pruned %d of %d pairs (%.1f%%)", skipped, total, total == 0 ? 0 : 100.0 * skipped / total);
+    }
+
+    // Alignments of homologous pairs are only built when a report file is set.
+    // Each reserves its traceback matrices from the memory budget first, and
+    // pairs too large for the whole budget use the linear-space traceback
+    public void ExportAlignments(String file) {
+        this.alignmentFile = file;
+    }
+
+    // Bytes the full-matrix alignments may hold at one time, a quarter of the heap by default
+    public void UseMemoryBudget(long bytes) {
+        this.budget = new MemoryBudget(bytes);
+    }
+
+    public String MemoryReport() {
+        return String.format("Alignment memory peak %.1f of %.1f MB, %d pairs in linear space",
+                budget.getPeak() / 1e6, budget.getCapacity() / 1e6, budget.getRefused());
+    }
+
+    protected void RecordAlignment(Gene gene, Gene referenceGene) {
+        RecordAlignments(Collections.singletonList(gene), referenceGene);
+    }
+
+    // Genes sharing one peptide share its alignment, so it is built once
+    protected void RecordAlignments(List<Gene> genes, Gene referenceGene) {
+        if (alignmentFile == null)
+            return;
+        Alignment alignment = SmithWatermanGotoh.align(
+                new Sequence(genes.get(0).sequence.toString()), new Sequence(referenceGene.sequence.toString()), BLOSUM_62, 10f, 0.5f, budget, workspace.get());
+        String details = String.join("\t", String.valueOf(alignment.getScore()),
+                String.valueOf(alignment.getStart1()), String.valueOf(alignment.getStart2()),
+                String.valueOf(alignment.getLength()),
+                String.valueOf(alignment.getIdentity()), String.valueOf(alignment.getSimilarity()),
+                String.valueOf(alignment.getGaps()),
+                new String(alignment.getSequence1()), new String(alignment.getMarkupLine()),
+                new String(alignment.getSequence2()));
+        for (Gene gene : genes)
+            alignments.add(String.join("\t", referenceGene.name, String.valueOf(gene.name),
+                    String.valueOf(gene.location), String.valueOf(gene.strand), details));
+    }
+
+    protected void WriteAlignments() throws IOException {
+        if (alignmentFile == null)
+            return;
+        List<String> lines = new ArrayList<>(alignments);
+        Collections.sort(lines);
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(alignmentFile)));
+        writer.println("reference\tgene\tlocation\tstrand\tscore\tstart1\tstart2\tlength\tidentity\tsimilarity\tgaps\tsequence1\tmarkup\tsequence2");
+        for (String line : lines)
+            writer.println(line);
+        writer.close();
+        alignments.clear();
     }
 
     protected NucleotideSequence GetUpstreamRegion(NucleotideSequence dna, Gene gene) {
@@ -44,13 +400,15 @@ public abstract  class Parallel {
         if (gene.location < upStreamDistance)
             upStreamDistance = gene.location - 1;
 
+        // Through copyOfRange, so packed genomes work too
         if (gene.strand == 1)
-            return new NucleotideSequence(Arrays.copyOfRange(dna.bytes, gene.location - upStreamDistance - 1, gene.location - 1));
+            return new NucleotideSequence(dna.copyOfRange(gene.location - upStreamDistance - 1, gene.location - 1));
         else {
             byte[] result = new byte[upStreamDistance];
-            int reverseStart = dna.bytes.length - gene.location + upStreamDistance;
+            int reverseStart = dna.length() - gene.location + upStreamDistance;
+            byte[] region = dna.copyOfRange(reverseStart - upStreamDistance + 1, reverseStart + 1);
             for (int i = 0; i < upStreamDistance; i++)
-                result[i] = complement[dna.bytes[reverseStart - i]];
+                result[i] = complement[region[upStreamDistance - 1 - i]];
             return new NucleotideSequence(result);
         }
     }
@@ -61,11 +419,59 @@ public abstract  class Parallel {
         return list;
     }
 
+    // Starts reading and parsing every file on a pool of its own and returns
+    // the records of each file to come in file order, so the caller can load
+    // the library meanwhile and still sees the same order as a serial loop.
+    // Each file is mapped, or inflated if compressed, on the pool; a file
+    // holding many records is then split at its "//" lines and its records
+    // parsed in parallel too
+    protected List<Future<List<GenbankRecord>>> ParseFiles(List<String> files, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parseThreads > 0 ? parseThreads : threads));
+        List<Future<List<GenbankRecord>>> records = new ArrayList<>();
+        try {
+            for (String file : files)
+                records.add(pool.submit(() -> {
+                    List<ForkJoinTask<GenbankRecord>> tasks = new ArrayList<>();
+                    for (ByteBuffer slice : new GenbankFile(file))
+                        tasks.add(ForkJoinTask.adapt(() -> Parse(slice)));
+                    List<GenbankRecord> parsed = new ArrayList<>();
+                    for (ForkJoinTask<GenbankRecord> task : ForkJoinTask.invokeAll(tasks))
+                        parsed.add(task.join());
+                    return parsed;
+                }));
+        } finally {
+            pool.shutdown();
+        }
+        return records;
+    }
+
+    protected <T> T Await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            // The parse pool wraps checked exceptions of a Callable
+            Throwable cause = ex.getCause();
+            while (cause instanceof RuntimeException && cause.getCause() != null)
+                cause = cause.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing");
+        }
+    }
+
+    // One record, empty if it has no genes
+    protected GenbankRecord Parse(ByteBuffer slice) {
+        GenbankRecord record = new GenbankRecord();
+        return record.Parse(slice, packing) ? record : new GenbankRecord();
+    }
+
     protected GenbankRecord Parse(String file) throws IOException {
+        // Scanned straight from the mapped (or inflated) file, see GenbankRecord.Parse(ByteBuffer)
         GenbankRecord record = new GenbankRecord();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-        record.Parse(reader);
-        reader.close();
+        record.Parse(GenbankFile.Read(file), packing);
         return record;
     }
 
@@ -86,11 +492,18 @@ public abstract  class Parallel {
 
     public double Time(Integer threads) throws IOException {
         long startTime = System.nanoTime();
+        if (cacheFile != null)
+            cache = new ScoreCache(Paths.get(cacheFile), cacheBytes);
 
         // Abstract method
         Run(threads);
 
         long endTime = System.nanoTime();
+        if (cache != null) {
+            cache.close();
+            cache = null;
+        }
+        WriteAlignments();
         return (endTime - startTime) / 1e9;
     }
 
@@ -98,56 +511,8 @@ public abstract  class Parallel {
 
     public static void main(String[] args) throws IOException, InterruptedException {
         System.out.println("PARALLEL COMPARISON");
-
-        // Arg parsed variables
-        int maxThreads = Runtime.getRuntime().availableProcessors();
-        int startThread = maxThreads;
-        int iterations = 1;
-        int time = 1;
-
-        // Which version do be run
-        List<Version> versions = new ArrayList<>();
-
-        // Based off args can choose iterations to use, threads to start from
-        for (int i = 0; i < args.length; i++) {
-            // Add all versions
-            if (args[i].equals("-all")) {
-                System.out.println("-all detected");
-                startThread = 0;
-            }
-
-            // Add a version
-            if (args[i].equals("+vall")) {
-                System.out.println("+vall detected");
-                versions = Arrays.asList(Version.values());
-            }
-            else if (args[i].contains("+v")) {
-                int version = Integer.parseInt(args[i].substring(args[i].length() - 1));
-                System.out.println(String.format("+v%d detected", version));
-                versions.add(Version.values()[version - 1]);
-            }
-
-            // How many iteratiosn
-            if (args[i].equals("-i")) {
-                iterations = Integer.parseInt(args[++i]);
-                System.out.println(String.format("-i %d detected", iterations));
-            }
-
-            // How long to wait between runs
-            if (args[i].equals("-t")) {
-                time = Integer.parseInt(args[++i]);
-                System.out.println(String.format("-t %d detected", time));
-            }
-        }
-
-        // Make sure args had something
-        if (versions.isEmpty())
-            versions = Arrays.asList(Version.values());
-
-        // Sort
-        versions = new ArrayList<>(new HashSet<>(versions));
-        Collections.sort(versions);
-        System.out.println();
+        Options options = Options.Parse(args);
+        Thread.sleep(options.startDelay * 1000);
 
         // Setup variables
         String referenceFile = "../referenceGenes.list";
@@ -156,41 +521,33 @@ public abstract  class Parallel {
         double runtimeAvg;
         Parallel parallel = null;
 
+        // Kernel choice, outside the timings
+        options.Create(options.versions.get(0), referenceFile, dir).SelectKernel();
 
         // RUN IT
-        for (Version version :versions ) {
-            for (int threads = startThread; threads <= maxThreads; threads += 2) {
+        for (Version version : options.versions) {
+            for (int threads = options.startThread; threads <= options.maxThreads; threads += 2) {
 
                 // For a verion and a thread, average runtime over iterations
                 System.out.println(String.format("%s using %d threads over %d iteration%s",
-                        version, (threads < 1 ? 1 : threads), iterations, (iterations > 1 ? "s" : "")));
+                        version, (threads < 1 ? 1 : threads), options.iterations, (options.iterations > 1 ? "s" : "")));
 
                 runtimeAvg = 0;
-                for (int i = 0; i < iterations; i++) {
-                    switch (version) {
-                        case VERSION1:
-                            parallel = new Parallel_v1(referenceFile, dir);
-                            break;
-                        case VERSION2:
-                            parallel = new Parallel_v2(referenceFile, dir);
-                            break;
-                        case VERSION3:
-                            parallel = new Parallel_v3(referenceFile, dir);
-                            break;
-
-                        default:
-                            throw new IllegalStateException("Unexpected value: " + version);
-                    }
+                for (int i = 0; i < options.iterations; i++) {
+                    parallel = options.Create(version, referenceFile, dir);
 
                     // Cool the jets before spinning up again
-                    Thread.sleep(time * 1000);
+                    Thread.sleep(options.time * 1000);
                     runtime = parallel.Time(threads < 1 ? 1 : threads);
-                    runtimeAvg += runtime / iterations;
-                    if (iterations > 1)
+                    runtimeAvg += runtime / options.iterations;
+                    if (options.iterations > 1)
                         System.out.println(String.format("IT%d: %.3fs", i+1, runtime));
                 }
 
                 System.out.println(String.format("AVG: %.3fs", runtimeAvg));
+                System.out.println(parallel.PruningReport());
+                System.out.println(KernelSelector.getReport());
+                options.PrintReports(parallel);
             }
 
             // Output
@@ -2,6 +2,8 @@ package promoters;
 
 import edu.au.jacobi.pattern.Match;
 import edu.au.jacobi.pattern.Series;
+import jaligner.QueryProfile;
+import jaligner.SeedFilter;
 import qut.*;
 
 import java.io.BufferedReader;
@@ -76,21 +78,29 @@ public class Parallel_v1 extends Parallel {
 
     private class GeneThreadFine implements Callable<GenesHomologous> {
         private Gene gene;
+        private byte[] sequence;
         private Gene referenceGene;
+        private QueryProfile referenceProfile;
+        private SeedFilter referenceSeeds;
         private NucleotideSequence nucleotides;
 
         // Constructor
-        public GeneThreadFine(Gene gene, Gene referenceGene, NucleotideSequence nucleotides) {
+        public GeneThreadFine(Gene gene, byte[] sequence, Gene referenceGene, QueryProfile referenceProfile, SeedFilter referenceSeeds, NucleotideSequence nucleotides) {
             this.gene = gene;
+            this.sequence = sequence;
             this.referenceGene = referenceGene;
+            this.referenceProfile = referenceProfile;
+            this.referenceSeeds = referenceSeeds;
             this.nucleotides = nucleotides;
         }
 
         // Invoke
         @Override
         public GenesHomologous call() {
-            return new GenesHomologous(gene, referenceGene,
-                    Homologous(gene.sequence, referenceGene.sequence), nucleotides);
+            boolean homologous = Homologous(sequence, referenceProfile, referenceSeeds);
+            if (homologous)
+                RecordAlignment(gene, referenceGene);
+            return new GenesHomologous(gene, referenceGene, homologous, nucleotides);
         }
     }
 
@@ -100,17 +110,24 @@ public class Parallel_v1 extends Parallel {
         ExecutorService executorService = Executors.newFixedThreadPool(threads);
         List<Callable<GenesHomologous>> callableList = new ArrayList<>();
 
+        // Ecoli files parse in the background while the library loads
+        List<Future<List<GenbankRecord>>> files = ParseFiles(ListGenbankFiles(dir), threads);
+
         // Genes in reference file
-        List<Gene> referenceGenes = ParseReferenceGenes(referenceFile);
-
-        // For each Ecoli file
-        for (String filename : ListGenbankFiles(dir)) {
-            GenbankRecord record = Parse(filename);
-            // For each gene in the reference file
-            for (Gene referenceGene : referenceGenes) {
-                // For each gene in the Ecoli file
-                for (Gene gene : record.genes) {
-                    callableList.add(new GeneThreadFine(gene, referenceGene, record.nucleotides));
+        ReferenceLibrary library = LoadLibrary();
+
+        // For each record of each Ecoli file
+        for (Future<List<GenbankRecord>> file : files) {
+            for (GenbankRecord record : Await(file)) {
+                byte[][] sequences = new byte[record.genes.size()][];
+                for (int k = 0; k < sequences.length; k++)
+                    sequences[k] = BLOSUM_62_INT.encode(record.genes.get(k).sequence.bytes);
+                // For each gene in the reference file
+                for (int i = 0; i < library.size(); i++) {
+                    // For each gene in the Ecoli file
+                    for (int k = 0; k < sequences.length; k++) {
+                        callableList.add(new GeneThreadFine(record.genes.get(k), sequences[k], library.genes.get(i), library.profiles[i], library.seeds(i), record.nucleotides));
+                    }
                 }
             }
         }
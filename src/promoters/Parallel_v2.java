@@ -2,6 +2,8 @@ package promoters;
 
 import edu.au.jacobi.pattern.Match;
 import edu.au.jacobi.pattern.Series;
+import jaligner.QueryProfile;
+import jaligner.SeedFilter;
 import qut.*;
 
 import java.io.BufferedReader;
@@ -15,6 +17,7 @@ import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class Parallel_v2 extends Parallel {
@@ -64,31 +67,38 @@ public class Parallel_v2 extends Parallel {
     }
 
     private class GeneThreadFine implements Callable<Void> {
-        private Gene gene;
+        private PeptideTable.Entry peptide;
+        private byte[] sequence;
         private Gene referenceGene;
-        private NucleotideSequence nucleotides;
+        private QueryProfile referenceProfile;
+        private SeedFilter referenceSeeds;
 
         // Constructor
-        public GeneThreadFine(Gene gene, Gene referenceGene, NucleotideSequence nucleotides) {
-            this.gene = gene;
+        public GeneThreadFine(PeptideTable.Entry peptide, byte[] sequence, Gene referenceGene, QueryProfile referenceProfile, SeedFilter referenceSeeds) {
+            this.peptide = peptide;
+            this.sequence = sequence;
             this.referenceGene = referenceGene;
-            this.nucleotides = nucleotides;
+            this.referenceProfile = referenceProfile;
+            this.referenceSeeds = referenceSeeds;
         }
 
         // Invoke
         @Override
         public Void call() {
-            // Copy paste of inner for each loop, with locking for shared heap object
-            if (Homologous(gene.sequence, referenceGene.sequence)) {
-                Match prediction = PredictPromoter(GetUpstreamRegion(nucleotides, gene));
-                if (prediction != null) {
-                    lock.lock();
-                    try {
-                        consensus.get(referenceGene.name).addMatch(prediction);
-                        consensus.get("all").addMatch(prediction);
-                    }
-                    finally {
-                        lock.unlock();
+            // One verdict per distinct peptide, fanned out to every gene that shares it
+            if (Homologous(sequence, referenceProfile, referenceSeeds)) {
+                RecordAlignments(peptide.genes, referenceGene);
+                for (int k = 0; k < peptide.genes.size(); k++) {
+                    Match prediction = PredictPromoter(GetUpstreamRegion(peptide.nucleotides.get(k), peptide.genes.get(k)));
+                    if (prediction != null) {
+                        lock.lock();
+                        try {
+                            consensus.get(referenceGene.name).addMatch(prediction);
+                            consensus.get("all").addMatch(prediction);
+                        }
+                        finally {
+                            lock.unlock();
+                        }
                     }
                 }
             }
@@ -102,18 +112,26 @@ public class Parallel_v2 extends Parallel {
         ExecutorService executorService = Executors.newFixedThreadPool(threads);
         List<Callable<Void>> callableList = new ArrayList<>();
 
+        // Ecoli files parse in the background while the library loads
+        List<Future<List<GenbankRecord>>> files = ParseFiles(ListGenbankFiles(dir), threads);
+
         // Genes in reference file
-        List<Gene> referenceGenes = ParseReferenceGenes(referenceFile);
-
-        // For each Ecoli file
-        for (String filename : ListGenbankFiles(dir)) {
-            GenbankRecord record = Parse(filename);
-            // For each gene in the reference file
-            for (Gene referenceGene : referenceGenes) {
-                // For each gene in the Ecoli file
-                for (Gene gene : record.genes) {
-                    callableList.add(new GeneThreadFine(gene, referenceGene, record.nucleotides));
-                }
+        ReferenceLibrary library = LoadLibrary();
+
+        // Distinct peptides of every Ecoli file
+        PeptideTable peptides = new PeptideTable();
+        for (Future<List<GenbankRecord>> file : files)
+            for (GenbankRecord record : Await(file))
+                peptides.Add(record);
+        byte[][] sequences = new byte[peptides.entries.size()][];
+        for (int k = 0; k < sequences.length; k++)
+            sequences[k] = BLOSUM_62_INT.encode(peptides.entries.get(k).peptide.bytes);
+
+        // For each gene in the reference file
+        for (int i = 0; i < library.size(); i++) {
+            // For each distinct peptide
+            for (int k = 0; k < sequences.length; k++) {
+                callableList.add(new GeneThreadFine(peptides.entries.get(k), sequences[k], library.genes.get(i), library.profiles[i], library.seeds(i)));
             }
         }
 
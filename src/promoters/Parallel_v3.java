@@ -5,22 +5,33 @@ import edu.au.jacobi.pattern.Series;
 import qut.*;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.FileInputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Parallel_v3 extends Parallel {
 
     // Threading
     public ConcurrentHashMap<String, Sigma70Consensus> consensus = new ConcurrentHashMap<>();
-    public ThreadLocal<Series> sigma70_pattern = ThreadLocal.withInitial(() -> Sigma70Definition.getSeriesAll_Unanchored(0.7));
+    public final double SIGMA70_THRESHOLD = 0.7;
+    public ThreadLocal<Series> sigma70_pattern = ThreadLocal.withInitial(() -> Sigma70Definition.getSeriesAll_Unanchored(SIGMA70_THRESHOLD));
+
+    // Sweep: one consensus per (cutoff, threshold) cell, per reference and "all"
+    public ConcurrentHashMap<String, Sigma70Consensus[]> grid = new ConcurrentHashMap<>();
+    private ThreadLocal<Series> sweep_pattern;
 
     // Constructor
     public Parallel_v3(String referenceFile, String dir) {
@@ -39,8 +50,12 @@ public class Parallel_v3 extends Parallel {
             String sequence = reader.readLine();
             referenceGenes.add(new Gene(name, 0, 0, sequence));
             consensus.put(name, new Sigma70Consensus());
+            if (sweepFile != null)
+                grid.put(name, NewCells());
         }
         consensus.put("all", new Sigma70Consensus());
+        if (sweepFile != null)
+            grid.put("all", NewCells());
         reader.close();
         return referenceGenes;
     }
@@ -62,26 +77,35 @@ public class Parallel_v3 extends Parallel {
     }
 
     private class GeneThreadFine implements Callable<Void> {
-        private Gene gene;
-        private List<Gene> referenceGenes;
-        private NucleotideSequence nucleotides;
+        private PeptideTable.Entry peptide;
+        private ReferenceLibrary library;
 
         // Constructor
-        public GeneThreadFine(Gene gene, List<Gene> referenceGenes, NucleotideSequence nucleotides) {
-            this.gene = gene;
-            this.referenceGenes = referenceGenes;
-            this.nucleotides = nucleotides;
+        public GeneThreadFine(PeptideTable.Entry peptide, ReferenceLibrary library) {
+            this.peptide = peptide;
+            this.library = library;
         }
 
         // Invoke
         @Override
         public Void call() {
-            for (Gene referenceGene : referenceGenes) {
-                if (Homologous(gene.sequence, referenceGene.sequence)) {
-                    Match prediction = PredictPromoter(GetUpstreamRegion(nucleotides, gene));
-                    if (prediction != null) {
-                        consensus.compute(referenceGene.name, (k,v) -> { v.addMatch(prediction); return v; });
-                        consensus.compute("all", (k,v) -> {v.addMatch(prediction); return v; });
+            if (sweepFile != null) {
+                Sweep(peptide, library);
+                return null;
+            }
+
+            // One verdict per distinct peptide and reference, fanned out to every gene that shares it
+            boolean[] homologous = Homologous(peptide.peptide, library);
+            for (int i = 0; i < library.size(); i++) {
+                Gene referenceGene = library.genes.get(i);
+                if (homologous[i]) {
+                    RecordAlignments(peptide.genes, referenceGene);
+                    for (int k = 0; k < peptide.genes.size(); k++) {
+                        Match prediction = PredictPromoter(GetUpstreamRegion(peptide.nucleotides.get(k), peptide.genes.get(k)));
+                        if (prediction != null) {
+                            consensus.compute(referenceGene.name, (key,v) -> { v.addMatch(prediction); return v; });
+                            consensus.compute("all", (key,v) -> {v.addMatch(prediction); return v; });
+                        }
                     }
                 }
             }
@@ -89,22 +113,115 @@ public class Parallel_v3 extends Parallel {
         }
     }
 
+    private Sigma70Consensus[] NewCells() {
+        Sigma70Consensus[] cells = new Sigma70Consensus[sweepCutoffs.length * sweepThresholds.length];
+        for (int c = 0; c < cells.length; c++)
+            cells[c] = new Sigma70Consensus();
+        return cells;
+    }
+
+    // Scores a peptide once against the library and fills every cell of the
+    // sweep, as well as the normal consensus. The pattern threshold only
+    // decides whether the best match is good enough, so one search at the
+    // lowest threshold serves every column: a cell takes the match if its
+    // similarity reaches the cell's threshold
+    private void Sweep(PeptideTable.Entry peptide, ReferenceLibrary library) {
+        int[] cutoffs = new int[sweepCutoffs.length];
+        int floor = HOMOLOGY_THRESHOLD;
+        for (int c = 0; c < cutoffs.length; c++) {
+            cutoffs[c] = BLOSUM_62_INT.scale(sweepCutoffs[c]);
+            floor = Math.min(floor, cutoffs[c]);
+        }
+        int[] scores = Scores(peptide.peptide, library, floor);
+
+        Match[] predictions = null;
+        for (int i = 0; i < library.size(); i++) {
+            int score = scores[i];
+            if (score < floor)
+                continue;
+            if (predictions == null) {
+                predictions = new Match[peptide.genes.size()];
+                for (int k = 0; k < predictions.length; k++)
+                    predictions[k] = BioPatterns.getBestMatch(sweep_pattern.get(), GetUpstreamRegion(peptide.nucleotides.get(k), peptide.genes.get(k)).toString());
+            }
+
+            Gene referenceGene = library.genes.get(i);
+            if (score >= HOMOLOGY_THRESHOLD)
+                RecordAlignments(peptide.genes, referenceGene);
+            for (Match prediction : predictions) {
+                if (prediction == null)
+                    continue;
+                if (score >= HOMOLOGY_THRESHOLD && prediction.similarity() >= SIGMA70_THRESHOLD) {
+                    consensus.compute(referenceGene.name, (key,v) -> { v.addMatch(prediction); return v; });
+                    consensus.compute("all", (key,v) -> {v.addMatch(prediction); return v; });
+                }
+                for (String name : new String[]{referenceGene.name, "all"}) {
+                    grid.compute(name, (key,cells) -> {
+                        for (int c = 0; c < cutoffs.length; c++)
+                            for (int t = 0; t < sweepThresholds.length; t++)
+                                if (score >= cutoffs[c] && prediction.similarity() >= sweepThresholds[t])
+                                    cells[c * sweepThresholds.length + t].addMatch(prediction);
+                        return cells;
+                    });
+                }
+            }
+        }
+    }
+
+    // One line per cell and reference: cutoff, threshold, reference, consensus
+    private void WriteSweep() throws IOException {
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(sweepFile)));
+        writer.println("cutoff\tthreshold\treference\tmatches\tconsensus");
+        for (int c = 0; c < sweepCutoffs.length; c++)
+            for (int t = 0; t < sweepThresholds.length; t++)
+                for (Map.Entry<String, Sigma70Consensus[]> entry : new TreeMap<>(grid).entrySet()) {
+                    Sigma70Consensus cell = entry.getValue()[c * sweepThresholds.length + t];
+                    writer.println(String.join("\t", String.valueOf(sweepCutoffs[c]), String.valueOf(sweepThresholds[t]),
+                            entry.getKey(), String.valueOf(cell.getPredictions()), cell.toString().trim()));
+                }
+        writer.close();
+    }
+
+    // Matches of "all" in every cell, cutoffs down and thresholds across
+    @Override
+    public String SweepReport() {
+        if (sweepFile == null)
+            return super.SweepReport();
+        StringBuilder sb = new StringBuilder("Sweep matches (cutoff \\ threshold)");
+        for (double threshold : sweepThresholds)
+            sb.append('\t').append(threshold);
+        Sigma70Consensus[] all = grid.get("all");
+        for (int c = 0; c < sweepCutoffs.length; c++) {
+            sb.append('\n').append(sweepCutoffs[c]);
+            for (int t = 0; t < sweepThresholds.length; t++)
+                sb.append('\t').append(all[c * sweepThresholds.length + t].getPredictions());
+        }
+        return sb.toString();
+    }
+
     @Override
     public void Run(Integer threads) throws IOException {
         // Scheduling setup
         ExecutorService executorService = Executors.newFixedThreadPool(threads);
         List<Callable<Void>> callableList = new ArrayList<>();
 
+        // Ecoli files parse in the background while the library loads
+        List<Future<List<GenbankRecord>>> files = ParseFiles(ListGenbankFiles(dir), threads);
+
         // Genes in reference file
-        List<Gene> referenceGenes = ParseReferenceGenes(referenceFile);
-
-        // For each Ecoli file
-        for (String filename : ListGenbankFiles(dir)) {
-            GenbankRecord record = Parse(filename);
-            // For each gene in the Ecoli file
-            for (Gene gene : record.genes) {
-                callableList.add(new GeneThreadFine(gene, referenceGenes, record.nucleotides));
-            }
+        ReferenceLibrary library = LoadLibrary();
+        if (sweepFile != null) {
+            double lowest = Arrays.stream(sweepThresholds).min().getAsDouble();
+            sweep_pattern = ThreadLocal.withInitial(() -> Sigma70Definition.getSeriesAll_Unanchored(Math.min(lowest, SIGMA70_THRESHOLD)));
+        }
+
+        // Distinct peptides of every Ecoli file
+        PeptideTable peptides = new PeptideTable();
+        for (Future<List<GenbankRecord>> file : files)
+            for (GenbankRecord record : Await(file))
+                peptides.Add(record);
+        for (PeptideTable.Entry peptide : peptides.entries) {
+            callableList.add(new GeneThreadFine(peptide, library));
         }
 
         // Run all scheduled tasks
@@ -114,5 +231,7 @@ public class Parallel_v3 extends Parallel {
             ex.printStackTrace();
         }
         executorService.shutdown();
+        if (sweepFile != null)
+            WriteSweep();
     }
 }
@@ -1,5 +1,9 @@
 package promoters;
 
+import jaligner.KernelSelector;
+
+import java.io.IOException;
+import java.nio.file.*;
 import java.util.*;
 
 public class Runner {
@@ -7,98 +11,71 @@ public class Runner {
         //System.out.println(String.join(" ",args));
         System.out.println("PARALLEL SPEEDUP");
 
-        // Arg parsed variables
-        int maxThreads = Runtime.getRuntime().availableProcessors();
-        int startThread = maxThreads;
-        int iterations = 1;
-        int time = 1;
-        int startdelay = 0;
-
-        // Which version do be run
-        List<Parallel.Version> versions = new ArrayList<>();
-
-        // Based off args can choose iterations to use, threads to start from
-        for (int i = 0; i < args.length; i++) {
-
-            // Add all versions
-            if (args[i].equals("-all")) {
-                System.out.println("-all detected");
-                startThread = 0;
-            }
-
-            // Add all versions
-            if (args[i].equals("-sd")) {
-                startdelay = Integer.parseInt(args[++i]);
-                System.out.println(String.format("-sd %d detected", startdelay));
-            }
-
-            // Add a version
-            if (args[i].equals("+vall")) {
-                System.out.println("+vall detected");
-                versions = Arrays.asList(Parallel.Version.values());
-            }
-            else if (args[i].contains("+v")) {
-                int version = Integer.parseInt(args[i].substring(args[i].length() - 1));
-                System.out.println(String.format("+v%d detected", version));
-                versions.add(Parallel.Version.values()[version - 1]);
-            }
-
-            // How many iteratiosn
-            if (args[i].equals("-i")) {
-                iterations = Integer.parseInt(args[++i]);
-                System.out.println(String.format("-i %d detected", iterations));
-            }
-
-            // How long to wait between runs
-            if (args[i].equals("-t")) {
-                time = Integer.parseInt(args[++i]);
-                System.out.println(String.format("-t %d detected", time));
-            }
-        }
-
-        // Make sure args had something
-        if (versions.isEmpty())
-            versions = Arrays.asList(Parallel.Version.values());
-
-        // Sort
-        versions = new ArrayList<>(new HashSet<>(versions));
-        Collections.sort(versions);
-        System.out.println("");
+        Options options = Options.Parse(args);
 
         // Sleep
-        Thread.sleep(startdelay * 1000);
+        Thread.sleep(options.startDelay * 1000);
 
         // Setup
         String referenceFile = "../referenceGenes.list";
         String dir = "../Ecoli";
         double runtime;
 
+        // Each timed run gets its own copy of the cache, so no run is timed
+        // against the entries an earlier run wrote. The last run's copy then
+        // replaces the cache file, so the entries of this invocation persist
+        String runCache = options.cacheFile == null ? null : options.cacheFile + ".run";
+
+        // Kernel choice, outside the timings
+        new Sequential(referenceFile, dir).SelectKernel();
+
         // Sequential Benchmark
         Sequential sequential = null;
         double benchmark = 0;
+        int iterations = options.iterations;
 
         // RUN IT
         System.out.println(String.format("SEQUENTIAL over %d iteration%s", iterations, (iterations > 1 ? "s" : "")));
         for (int i = 0; i < iterations; i++) {
-            sequential = new Sequential(referenceFile, dir);
+            sequential = options.Create(referenceFile, dir);
+            if (runCache != null)
+                sequential.UseCache(ResetCache(options.cacheFile, runCache), options.cacheBytes);
 
             // Cool the jets before spinning up again
-            Thread.sleep(time * 1000);
+            Thread.sleep(options.time * 1000);
             runtime = sequential.Run();
             benchmark +=  runtime  / iterations;
             if (iterations > 1)
                 System.out.println(String.format("IT%d: %.3fs", i+1, runtime));
         }
         System.out.println(String.format("AVG: %.3fs", benchmark));
+        System.out.println(sequential.PruningReport());
+        System.out.println(KernelSelector.getReport());
+        if (options.cacheFile != null)
+            System.out.println(sequential.CacheReport());
+        if (options.topHits > 0)
+            System.out.println(sequential.TopHitsReport());
         System.out.println("");
 
+        // The original float alignment of every pair, untimed. Sequential
+        // runs the integer kernels, so it is held to these results too
+        Sequential baseline = null;
+        if (options.baseline) {
+            System.out.println("BASELINE float alignment");
+            baseline = new Sequential(referenceFile, dir);
+            baseline.UseBaseline();
+            baseline.Run();
+            Check("Sequential", sequential.ResultsString(), sequential::DisplayResults, baseline);
+            System.out.println("");
+        }
+
         // Parallel Benchmark
         Parallel parallel = null;
         double runtimeAvg;
 
         // RUN IT
-        for (Parallel.Version version : versions ) {
-            for (int threads = startThread; threads <= maxThreads; threads += 2) {
+        for (Parallel.Version version : options.versions) {
+            for (int threads = options.startThread; threads <= options.maxThreads; threads += 2) {
 
                 // For a verion and a thread, average runtime over iterations
                 System.out.println(String.format("%s using %d threads over %d iteration%s",
@@ -106,43 +83,59 @@ public class Runner {
 
                 runtimeAvg = 0;
                 for (int i = 0; i < iterations; i++) {
-                    switch (version) {
-                        case VERSION1:
-                            parallel = new Parallel_v1(referenceFile, dir);
-                            break;
-                        case VERSION2:
-                            parallel = new Parallel_v2(referenceFile, dir);
-                            break;
-                        case VERSION3:
-                            parallel = new Parallel_v3(referenceFile, dir);
-                            break;
-
-                        default:
-                            throw new IllegalStateException("Unexpected value: " + version);
-                    }
+                    parallel = options.Create(version, referenceFile, dir);
+                    if (runCache != null)
+                        parallel.UseCache(ResetCache(options.cacheFile, runCache), options.cacheBytes);
 
                     // Cool the jets before spinning up again
-                    Thread.sleep(time * 1000);
+                    Thread.sleep(options.time * 1000);
                     runtime = parallel.Time(threads < 1 ? 1 : threads);
                     runtimeAvg += runtime / iterations;
                     if (iterations > 1)
                         System.out.println(String.format("IT%d: %.3fs", i+1, runtime));
                 }
                 System.out.println(String.format("AVG: %.3fs (%.3f speedup)", runtimeAvg, benchmark/runtimeAvg));
+                System.out.println(parallel.PruningReport());
+                options.PrintReports(parallel);
             }
 
-            // Check that the implementation is correct
-            if (!parallel.ResultsString().equals(sequential.ResultsString())) {
+            // Check that the implementation is correct, the seed prefilter
+            // alone may miss homologs so it is not held to the exact results
+            if ((!options.seeds || options.seedCheck) && !parallel.ResultsString().equals(sequential.ResultsString())) {
                 sequential.DisplayResults();
                 parallel.DisplayResults();
                 throw new Exception("Parallelisation failed");
             }
+            if ((!options.seeds || options.seedCheck) && baseline != null)
+                Check(version.toString(), parallel.ResultsString(), parallel::DisplayResults, baseline);
 
             // Output
             //System.out.println(String.format("%s Results", version));
             //parallel.DisplayResults();
             System.out.println("");
         }
+        if (runCache != null && Files.exists(Paths.get(runCache)))
+            Files.move(Paths.get(runCache), Paths.get(options.cacheFile), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Fails if a run's results are not the baseline's
+    private static void Check(String name, String results, Runnable display, Sequential baseline) throws Exception {
+        if (results.equals(baseline.ResultsString()))
+            return;
+        baseline.DisplayResults();
+        display.run();
+        throw new Exception(name + " differs from the float baseline");
+    }
+
+    // Copies the cache file as the runs found it, or removes the copy when
+    // there is none yet
+    private static String ResetCache(String cacheFile, String runCache) throws IOException {
+        Path source = Paths.get(cacheFile), copy = Paths.get(runCache);
+        if (Files.exists(source))
+            Files.copy(source, copy, StandardCopyOption.REPLACE_EXISTING);
+        else
+            Files.deleteIfExists(copy);
+        return runCache;
     }
 }
 //java -jar promoter.jar
\ No newline at end of file
@@ -3,18 +3,40 @@ package promoters;
 import edu.au.jacobi.pattern.Match;
 import edu.au.jacobi.pattern.Series;
 import jaligner.BLOSUM62;
+import jaligner.KernelSelector;
+import jaligner.QueryProfile;
+import jaligner.ScoreCache;
 import jaligner.Sequence;
 import jaligner.SmithWatermanGotoh;
+import jaligner.Workspace;
+import jaligner.matrix.IntegerMatrix;
 import jaligner.matrix.Matrix;
 import qut.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
 import java.util.*;
 
 public class Sequential {
     private String referenceFile;
     private String dir;
+    private final IntegerMatrix BLOSUM_62_INT = BLOSUM62.LoadInteger();
+    private final int GAP_OPEN = BLOSUM_62_INT.scale(10f);
+    private final int GAP_EXTEND = BLOSUM_62_INT.scale(0.5f);
+    private final int HOMOLOGY_THRESHOLD = BLOSUM_62_INT.scale(60);
+    private long pairs;
+    private long pruned;
+    private final long CACHE_PARAMS = ScoreCache.params(BLOSUM_62_INT.getId(), BLOSUM_62_INT.getScale(), GAP_OPEN, GAP_EXTEND);
+    private String cacheFile;
+    private long cacheBytes;
+    private ScoreCache cache;
+    private long cacheHits;
+    private long cacheMisses;
+    private TopHitsSearch top;
+    private final Workspace workspace = new Workspace();
     private final Matrix BLOSUM_62 = BLOSUM62.Load();
+    private boolean baseline;
     private byte[] complement = new byte['z'];
     {
         complement['C'] = 'G'; complement['c'] = 'g'; complement['G'] = 'C'; complement['g'] = 'c';
@@ -46,23 +68,116 @@ public class Sequential {
         return referenceGenes;
     }
 
+    // One reference against every gene of a record. Pairs whose score bound
+    // is already below the threshold skip the DP, cached pairs are looked up,
+    // and the rest are scored together in one batch
+    private boolean[] Homologous(QueryProfile B, byte[][] sequences) {
+        long reference = cache == null ? 0 : ScoreCache.hash(B.getResidues());
+        boolean[] homologous = new boolean[sequences.length];
+        int[] rest = new int[sequences.length];
+        int count = 0;
+        for (int k = 0; k < sequences.length; k++) {
+            pairs++;
+            if (B.upperBound(sequences[k]) < HOMOLOGY_THRESHOLD) {
+                pruned++;
+                continue;
+            }
+            if (cache != null) {
+                int cached = cache.get(reference, ScoreCache.hash(sequences[k]), CACHE_PARAMS);
+                if (ScoreCache.decides(cached, HOMOLOGY_THRESHOLD)) {
+                    cacheHits++;
+                    homologous[k] = cached >= HOMOLOGY_THRESHOLD;
+                    continue;
+                }
+                cacheMisses++;
+            }
+            rest[count++] = k;
+        }
+        if (count == 0)
+            return homologous;
+
+        byte[][] targets = new byte[count][];
+        for (int k = 0; k < count; k++)
+            targets[k] = sequences[rest[k]];
+        int[] scores = SmithWatermanGotoh.score(B, targets, GAP_OPEN, GAP_EXTEND);
+        for (int k = 0; k < count; k++) {
+            homologous[rest[k]] = scores[k] >= HOMOLOGY_THRESHOLD;
+            if (cache != null)
+                cache.put(reference, ScoreCache.hash(targets[k]), CACHE_PARAMS, scores[k]);
+        }
+        return homologous;
+    }
+
+    // The original test: the float alignment's score of every pair
     private boolean Homologous(PeptideSequence A, PeptideSequence B) {
         return SmithWatermanGotoh.align(
                 new Sequence(A.toString()),
                 new Sequence(B.toString()), BLOSUM_62, 10f, 0.5f).calculateScore() >= 60;
     }
 
+    // Score every pair with the original float alignment instead of the
+    // integer kernels, with no pruning, cache or top hits: the results the
+    // fast paths are held to. Off by default
+    public void UseBaseline() {
+        this.baseline = true;
+    }
+
+    // Assign each gene to its K best references only, off by default
+    public void UseTopHits(int k) {
+        this.top = new TopHitsSearch(k, BLOSUM_62_INT, GAP_OPEN, GAP_EXTEND, HOMOLOGY_THRESHOLD);
+    }
+
+    public String TopHitsReport() {
+        return top == null ? "Top hits off" : top.report();
+    }
+
+    // Kernel of the one-to-many scores, picked once before the timed runs
+    public void SelectKernel() throws IOException {
+        List<String> files = ListGenbankFiles(dir);
+        new ReferenceLibrary(ParseReferenceGenes(referenceFile), BLOSUM_62_INT)
+                .selectKernel(files.isEmpty() ? null : files.get(0), GAP_OPEN, GAP_EXTEND, HOMOLOGY_THRESHOLD);
+    }
+
+    // Score cache file, off by default, and the size it is created at
+    public void UseCache(String file, long maxBytes) {
+        this.cacheFile = file;
+        this.cacheBytes = maxBytes;
+    }
+
+    public String CacheReport() {
+        if (cacheFile == null)
+            return "Cache off";
+        long hits = cacheHits, total = cacheHits + cacheMisses;
+        if (top != null) {
+            hits += top.getCacheHits();
+            total += top.getCacheHits() + top.getCacheMisses();
+        }
+        return String.format("Cache answered %d of %d alignments (%.1f%%)", hits, total, total == 0 ? 0 : 100.0 * hits / total);
+    }
+
+    public String PruningReport() {
+        long total = pairs, skipped = pruned;
+        if (top != null) {
+            total += top.getPairs();
+            skipped += top.getPruned();
+        }
+        return String.format("Pruned %d of %d pairs (%.1f%%)", skipped, total, total == 0 ? 0 : 100.0 * skipped / total);
+    }
+
     private NucleotideSequence GetUpstreamRegion(NucleotideSequence dna, Gene gene) {
         int upStreamDistance = 250;
         if (gene.location < upStreamDistance)
             upStreamDistance = gene.location - 1;
+
+        // Through copyOfRange, so packed genomes work too
         if (gene.strand == 1)
-            return new NucleotideSequence(Arrays.copyOfRange(dna.bytes, gene.location - upStreamDistance - 1, gene.location - 1));
+            return new NucleotideSequence(dna.copyOfRange(gene.location - upStreamDistance - 1, gene.location - 1));
         else {
             byte[] result = new byte[upStreamDistance];
-            int reverseStart = dna.bytes.length - gene.location + upStreamDistance;
+            int reverseStart = dna.length() - gene.location + upStreamDistance;
+            byte[] region = dna.copyOfRange(reverseStart - upStreamDistance + 1, reverseStart + 1);
             for (int i = 0; i < upStreamDistance; i++)
-                result[i] = complement[dna.bytes[reverseStart - i]];
+                result[i] = complement[region[upStreamDistance - 1 - i]];
             return new NucleotideSequence(result);
         }
     }
@@ -82,12 +197,15 @@ public class Sequential {
         return list;
     }
 
-    private GenbankRecord Parse(String file) throws IOException {
-        GenbankRecord record = new GenbankRecord();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-        record.Parse(reader);
-        reader.close();
-        return record;
+    // Every record of a file, a file may hold several
+    private List<GenbankRecord> ParseRecords(String file) throws IOException {
+        List<GenbankRecord> records = new ArrayList<>();
+        for (ByteBuffer slice : new GenbankFile(file)) {
+            GenbankRecord record = new GenbankRecord();
+            if (record.Parse(slice))
+                records.add(record);
+        }
+        return records;
     }
 
     private Match PredictPromoter(NucleotideSequence upStreamRegion) {
@@ -105,28 +223,65 @@ public class Sequential {
 
     public double Run() throws IOException {
         long startTime = System.nanoTime();
-        List<Gene> referenceGenes = ParseReferenceGenes(referenceFile);
-        // For each Ecoli file
+        if (cacheFile != null)
+            cache = new ScoreCache(Paths.get(cacheFile), cacheBytes);
+        ReferenceLibrary library = new ReferenceLibrary(ParseReferenceGenes(referenceFile), BLOSUM_62_INT);
+        // For each record of each Ecoli file
         for (String filename : ListGenbankFiles(dir)) {
-            GenbankRecord record = Parse(filename);
-            // For each gene in the reference file
-            for (Gene referenceGene : referenceGenes) {
-                // For each gene in the Ecoli file
-                for (Gene gene : record.genes) {
+            for (GenbankRecord record : ParseRecords(filename)) {
+                byte[][] sequences = new byte[record.genes.size()][];
+                for (int k = 0; k < sequences.length; k++)
+                    sequences[k] = BLOSUM_62_INT.encode(record.genes.get(k).sequence.bytes);
+                // Top hits: each gene against the whole library
+                if (top != null && !baseline) {
+                    for (int k = 0; k < sequences.length; k++) {
+                        Gene gene = record.genes.get(k);
+                        boolean[] homologous = top.search(sequences[k], library, false, cache, CACHE_PARAMS, workspace);
+                        for (int i = 0; i < library.size(); i++) {
+                            if (homologous[i]) {
+                                Match prediction = PredictPromoter(GetUpstreamRegion(record.nucleotides, gene));
+                                if (prediction != null) {
+                                    consensus.get(library.genes.get(i).name).addMatch(prediction);
+                                    consensus.get("all").addMatch(prediction);
+                                }
+                            }
+                        }
+                    }
+                    continue;
+                }
+                // For each gene in the reference file
+                for (int i = 0; i < library.size(); i++) {
+                    Gene referenceGene = library.genes.get(i);
                     // Nearly the entire CPU time is taken in Homologous
-                    if (Homologous(gene.sequence, referenceGene.sequence)) {
-                        NucleotideSequence upStreamRegion = GetUpstreamRegion(record.nucleotides, gene);
-                        Match prediction = PredictPromoter(upStreamRegion);
-                        if (prediction != null) {
-                            // Add matches to specific and total Sigma70Consensus objects
-                            consensus.get(referenceGene.name).addMatch(prediction);
-                            consensus.get("all").addMatch(prediction);
+                    boolean[] homologous;
+                    if (baseline) {
+                        homologous = new boolean[sequences.length];
+                        for (int k = 0; k < sequences.length; k++)
+                            homologous[k] = Homologous(record.genes.get(k).sequence, referenceGene.sequence);
+                    } else {
+                        homologous = Homologous(library.profiles[i], sequences);
+                    }
+                    // For each gene in the Ecoli file
+                    for (int k = 0; k < sequences.length; k++) {
+                        Gene gene = record.genes.get(k);
+                        if (homologous[k]) {
+                            NucleotideSequence upStreamRegion = GetUpstreamRegion(record.nucleotides, gene);
+                            Match prediction = PredictPromoter(upStreamRegion);
+                            if (prediction != null) {
+                                // Add matches to specific and total Sigma70Consensus objects
+                                consensus.get(referenceGene.name).addMatch(prediction);
+                                consensus.get("all").addMatch(prediction);
+                            }
                         }
                     }
                 }
             }
         }
         long endTime = System.nanoTime();
+        if (cache != null) {
+            cache.close();
+            cache = null;
+        }
         return (endTime - startTime) / 1e9;
     }
 
@@ -148,6 +303,7 @@ public class Sequential {
         String dir = "../Ecoli";
         double runtime;
         Sequential sequential = null;
+        new Sequential(referenceFile, dir).SelectKernel();
 
         System.out.print(String.format("Sequential over %d iteration%s:", iterations, (iterations > 1 ? "s" : "")));
         runtime = 0;
@@ -156,6 +312,8 @@ public class Sequential {
             runtime += sequential.Run() / iterations;
         }
         System.out.println(String.format(" %.3fs %s", runtime, (iterations > 1 ? "avg" : "")));
+        System.out.println(sequential.PruningReport());
+        System.out.println(KernelSelector.getReport());
 
         // Output
         System.out.println("Results");
@@ -0,0 +1,414 @@
+package promoters;
+
+import jaligner.Alignment;
+import jaligner.BLOSUM62;
+import jaligner.QueryProfile;
+import jaligner.SeedFilter;
+import jaligner.Sequence;
+import jaligner.SmithWatermanGotoh;
+import jaligner.Workspace;
+import jaligner.matrix.IntegerMatrix;
+import jaligner.matrix.Matrix;
+import qut.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// Checks the fast alignment paths against the original full alignment on real
+// data: every reference gene against every reference gene and every gene of
+// the Ecoli files. Run from the same directory as Runner, with
+// --add-modules jdk.incubator.vector or the vector kernels are skipped; exits
+// with status 1 if any check fails
+public class Verifier {
+    private static final Matrix BLOSUM_62 = BLOSUM62.Load();
+    private static final float HOMOLOGY_THRESHOLD = 60;
+    private static final IntegerMatrix BLOSUM_62_INT = BLOSUM62.LoadInteger();
+    private static final int GAP_OPEN = BLOSUM_62_INT.scale(10f);
+    private static final int GAP_EXTEND = BLOSUM_62_INT.scale(0.5f);
+    private static final int WAVEFRONT_TILE = 256; // Side of the wavefront kernel's tiles
+    private static final int[] BAND_WIDTHS = {8, 64};
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("VERIFIER");
+
+        // Arg parsed variables
+        String referenceFile = "../referenceGenes.list";
+        String dir = "../Ecoli";
+        int limit = Integer.MAX_VALUE;
+        for (int i = 0; i < args.length; i++) {
+            // Other inputs than Runner's
+            if (args[i].equals("-r")) {
+                referenceFile = args[++i];
+                System.out.println(String.format("-r %s detected", referenceFile));
+            }
+            if (args[i].equals("-d")) {
+                dir = args[++i];
+                System.out.println(String.format("-d %s detected", dir));
+            }
+
+            // Genes taken from each record, for a quicker check
+            if (args[i].equals("-g")) {
+                limit = Integer.parseInt(args[++i]);
+                System.out.println(String.format("-g %d detected", limit));
+            }
+        }
+
+        List<String> references = ReadReferences(referenceFile);
+        List<String> genes = new ArrayList<>(references);
+        for (String file : ListGenbankFiles(dir)) {
+            for (ByteBuffer slice : new GenbankFile(file)) {
+                GenbankRecord record = new GenbankRecord();
+                if (!record.Parse(slice))
+                    continue;
+                for (int k = 0; k < Math.min(limit, record.genes.size()); k++)
+                    genes.add(record.genes.get(k).sequence.toString());
+            }
+        }
+        System.out.println(String.format("%d references against %d genes", references.size(), genes.size()));
+
+        int failures = ScoreParity(references, genes);
+        failures += LinearSpaceParity(references, genes);
+
+        // The integer kernels against the float score of the same pairs
+        List<String[]> pairs = KernelPairs(references, genes);
+        float[] expected = new float[pairs.size()];
+        for (int p = 0; p < pairs.size(); p++)
+            expected[p] = SmithWatermanGotoh.score(new Sequence(pairs.get(p)[0]), new Sequence(pairs.get(p)[1]), BLOSUM_62, 10f, 0.5f);
+        failures += IntegerParity(pairs, expected);
+        failures += StripedParity(pairs, expected);
+        failures += BatchParity(pairs, expected);
+        failures += WavefrontParity(pairs, expected);
+        failures += BoundParity(pairs, expected);
+        failures += BandedParity(pairs, expected);
+        System.out.println(failures == 0 ? "PASSED" : String.format("FAILED %d checks", failures));
+        if (failures > 0)
+            System.exit(1);
+    }
+
+    // The score-only homology verdict must be the one the original code took
+    // from the full alignment, calculateScore() >= 60
+    private static int ScoreParity(List<String> references, List<String> genes) {
+        int pairs = 0, disagree = 0;
+        for (String reference : references) {
+            for (String gene : genes) {
+                Sequence A = new Sequence(gene), B = new Sequence(reference);
+                float expected = SmithWatermanGotoh.align(A, B, BLOSUM_62, 10f, 0.5f).calculateScore();
+                float score = SmithWatermanGotoh.score(A, B, BLOSUM_62, 10f, 0.5f);
+                pairs++;
+                if ((score >= HOMOLOGY_THRESHOLD) != (expected >= HOMOLOGY_THRESHOLD)) {
+                    disagree++;
+                    System.out.println(String.format("  score %.1f, calculateScore %.1f: %s / %s", score, expected, Abbreviate(reference), Abbreviate(gene)));
+                }
+            }
+        }
+        System.out.println(String.format("Score parity: %d of %d verdicts disagree", disagree, pairs));
+        return disagree;
+    }
+
+    // The linear-space alignment must be the full alignment, path and ties
+    // included. Besides the gene pairs, all references joined are aligned
+    // against runs of genes joined to the same length, pairs large enough
+    // that the linear-space traceback splits them
+    private static int LinearSpaceParity(List<String> references, List<String> genes) {
+        List<String[]> pairs = new ArrayList<>();
+        for (String reference : references)
+            for (String gene : genes)
+                pairs.add(new String[]{gene, reference});
+
+        String joined = String.join("", references);
+        StringBuilder run = new StringBuilder();
+        for (String gene : genes.subList(references.size(), genes.size())) {
+            run.append(gene);
+            if (run.length() >= joined.length()) {
+                pairs.add(new String[]{run.toString(), joined});
+                run.setLength(0);
+            }
+        }
+
+        int differ = 0;
+        for (String[] pair : pairs) {
+            Sequence A = new Sequence(pair[0]), B = new Sequence(pair[1]);
+            Alignment full = SmithWatermanGotoh.align(A, B, BLOSUM_62, 10f, 0.5f);
+            Alignment linear = SmithWatermanGotoh.alignLinear(A, B, BLOSUM_62, 10f, 0.5f);
+            if (full.getScore() != linear.getScore() || full.getStart1() != linear.getStart1()
+                    || full.getStart2() != linear.getStart2() || !full.getCigar().equals(linear.getCigar())) {
+                differ++;
+                System.out.println(String.format("  full %.1f at %d,%d %s, linear %.1f at %d,%d %s: %s / %s",
+                        full.getScore(), full.getStart1(), full.getStart2(), full.getCigar(),
+                        linear.getScore(), linear.getStart1(), linear.getStart2(), linear.getCigar(),
+                        Abbreviate(pair[1]), Abbreviate(pair[0])));
+            }
+        }
+        System.out.println(String.format("Linear-space parity: %d of %d alignments differ", differ, pairs.size()));
+        return differ;
+    }
+
+    // The integer recurrences on byte codes of the x2 BLOSUM62 must give
+    // the float score exactly
+    private static int IntegerParity(List<String[]> pairs, float[] expected) {
+        int differ = 0;
+        for (int p = 0; p < pairs.size(); p++) {
+            QueryProfile query = Profile(pairs.get(p)[1]);
+            int score = SmithWatermanGotoh.score(query, Encode(pairs.get(p)[0]), GAP_OPEN, GAP_EXTEND, SmithWatermanGotoh.Kernel.SCALAR);
+            differ += Compare("integer", score, expected[p], pairs.get(p));
+        }
+        System.out.println(String.format("Integer parity: %d of %d scores differ", differ, pairs.size()));
+        return differ;
+    }
+
+    // The striped kernel must give the float score in whatever lanes it ends
+    // in. A pair whose score passes the top of the 8-bit lanes less the
+    // largest matrix score is given up and rescored in 16-bit lanes, and
+    // likewise into 32-bit lanes; the pairs taking each path are counted so
+    // a run shows all three were reached
+    private static int StripedParity(List<String[]> pairs, float[] expected) {
+        if (!SmithWatermanGotoh.Kernel.STRIPED.isAvailable()) {
+            System.out.println("Striped parity: skipped, kernel not available");
+            return 0;
+        }
+        int high = Arrays.stream(BLOSUM_62_INT.getScores()).max().getAsInt();
+        int[] lanes = new int[3];
+        int differ = 0;
+        for (int p = 0; p < pairs.size(); p++) {
+            QueryProfile query = Profile(pairs.get(p)[1]);
+            int score = SmithWatermanGotoh.score(query, Encode(pairs.get(p)[0]), GAP_OPEN, GAP_EXTEND, SmithWatermanGotoh.Kernel.STRIPED);
+            differ += Compare("striped", score, expected[p], pairs.get(p));
+            int exact = BLOSUM_62_INT.scale(expected[p]);
+            lanes[exact <= Byte.MAX_VALUE - high ? 0 : exact <= Short.MAX_VALUE - high ? 1 : 2]++;
+        }
+        System.out.println(String.format("Striped parity: %d of %d scores differ (%d in 8-bit lanes, %d rescored in 16-bit, %d in 32-bit)",
+                differ, pairs.size(), lanes[0], lanes[1], lanes[2]));
+        return differ;
+    }
+
+    // The batch kernel must give the float score of every target of a query
+    // scored side by side. A batch holding a score past the top of the 16-bit
+    // lanes less the largest matrix score is rescored in 32-bit lanes, with
+    // the rest of its batch
+    private static int BatchParity(List<String[]> pairs, float[] expected) {
+        if (!SmithWatermanGotoh.Kernel.BATCH.isAvailable()) {
+            System.out.println("Batch parity: skipped, kernel not available");
+            return 0;
+        }
+        Map<String, List<Integer>> queries = new LinkedHashMap<>();
+        for (int p = 0; p < pairs.size(); p++)
+            queries.computeIfAbsent(pairs.get(p)[1], k -> new ArrayList<>()).add(p);
+
+        int high = Arrays.stream(BLOSUM_62_INT.getScores()).max().getAsInt();
+        int differ = 0, wide = 0;
+        for (Map.Entry<String, List<Integer>> query : queries.entrySet()) {
+            List<Integer> batch = query.getValue();
+            byte[][] targets = new byte[batch.size()][];
+            for (int t = 0; t < targets.length; t++)
+                targets[t] = Encode(pairs.get(batch.get(t))[0]);
+            int[] scores = SmithWatermanGotoh.score(Profile(query.getKey()), targets, GAP_OPEN, GAP_EXTEND, SmithWatermanGotoh.Kernel.BATCH);
+            for (int t = 0; t < targets.length; t++) {
+                int p = batch.get(t);
+                differ += Compare("batch", scores[t], expected[p], pairs.get(p));
+                if (BLOSUM_62_INT.scale(expected[p]) > Short.MAX_VALUE - high)
+                    wide++;
+            }
+        }
+        System.out.println(String.format("Batch parity: %d of %d scores differ (%d past the 16-bit lanes)", differ, pairs.size(), wide));
+        return differ;
+    }
+
+    // The tiled score must give the float score. The switch is lowered to a
+    // single cell so every pair takes the path the default score and
+    // threshold methods take for long pairs, then put back
+    private static int WavefrontParity(List<String[]> pairs, float[] expected) {
+        long cells = SmithWatermanGotoh.getWavefrontCells();
+        SmithWatermanGotoh.setWavefrontCells(1);
+        Workspace workspace = new Workspace();
+        int differ = 0, tiled = 0;
+        try {
+            for (int p = 0; p < pairs.size(); p++) {
+                QueryProfile query = Profile(pairs.get(p)[1]);
+                byte[] target = Encode(pairs.get(p)[0]);
+                int score = SmithWatermanGotoh.score(query, target, GAP_OPEN, GAP_EXTEND, workspace);
+                differ += Compare("wavefront", score, expected[p], pairs.get(p));
+                if (query.length() > WAVEFRONT_TILE || target.length > WAVEFRONT_TILE)
+                    tiled++;
+            }
+        } finally {
+            SmithWatermanGotoh.setWavefrontCells(cells);
+        }
+        System.out.println(String.format("Wavefront parity: %d of %d scores differ (%d over more than one tile)", differ, pairs.size(), tiled));
+        return differ;
+    }
+
+    // The prefilter bound must never fall below the score, and the early-exit
+    // test must take the verdict of the score at the homology threshold, at
+    // the score itself and just above it: in floats, in integers, and in
+    // integers with the wavefront switch forced
+    private static int BoundParity(List<String[]> pairs, float[] expected) {
+        int differ = 0, pruned = 0;
+        Workspace workspace = new Workspace();
+        long cells = SmithWatermanGotoh.getWavefrontCells();
+        for (int p = 0; p < pairs.size(); p++) {
+            String[] pair = pairs.get(p);
+            QueryProfile query = Profile(pair[1]);
+            byte[] target = Encode(pair[0]);
+            int exact = BLOSUM_62_INT.scale(expected[p]);
+
+            int bound = query.upperBound(target);
+            if (bound < exact) {
+                System.out.println(String.format("  bound %.1f below score %.1f: %s / %s", BLOSUM_62_INT.unscale(bound), expected[p],
+                        Abbreviate(pair[1]), Abbreviate(pair[0])));
+                differ++;
+            }
+            if (bound < BLOSUM_62_INT.scale(HOMOLOGY_THRESHOLD))
+                pruned++;
+
+            for (int threshold : new int[]{BLOSUM_62_INT.scale(HOMOLOGY_THRESHOLD), exact, exact + 1}) {
+                boolean verdict = exact >= threshold;
+                float t = BLOSUM_62_INT.unscale(threshold);
+                boolean floats = SmithWatermanGotoh.alignsAtLeast(new Sequence(pair[0]), new Sequence(pair[1]), BLOSUM_62, 10f, 0.5f, t);
+                boolean integers = SmithWatermanGotoh.alignsAtLeast(query, target, GAP_OPEN, GAP_EXTEND, threshold, workspace);
+                SmithWatermanGotoh.setWavefrontCells(1);
+                boolean tiled;
+                try {
+                    tiled = SmithWatermanGotoh.alignsAtLeast(query, target, GAP_OPEN, GAP_EXTEND, threshold, workspace);
+                } finally {
+                    SmithWatermanGotoh.setWavefrontCells(cells);
+                }
+                if (floats != verdict || integers != verdict || tiled != verdict) {
+                    System.out.println(String.format("  at least %.1f: float %b, integer %b, tiled %b, score %.1f: %s / %s", t,
+                            floats, integers, tiled, expected[p], Abbreviate(pair[1]), Abbreviate(pair[0])));
+                    differ++;
+                }
+            }
+        }
+        System.out.println(String.format("Bound parity: %d of %d checks differ (%d pairs pruned by the bound)", differ, pairs.size() * 4, pruned));
+        return differ;
+    }
+
+    // Banded verdicts around the seed diagonal Parallel would find, or the
+    // main diagonal if none: the band's score is never above the score, a
+    // band reaching the homology threshold means the pair is homologous, and
+    // the band-then-full test takes the verdict of the score at the threshold,
+    // at the score itself and just above it
+    private static int BandedParity(List<String[]> pairs, float[] expected) {
+        int homology = BLOSUM_62_INT.scale(HOMOLOGY_THRESHOLD);
+        Workspace workspace = new Workspace();
+        int differ = 0, checks = 0, seeded = 0, settled = 0;
+        for (int p = 0; p < pairs.size(); p++) {
+            String[] pair = pairs.get(p);
+            QueryProfile query = Profile(pair[1]);
+            byte[] target = Encode(pair[0]);
+            int exact = BLOSUM_62_INT.scale(expected[p]);
+
+            // Parallel's seed settings
+            SeedFilter seeds = new SeedFilter(query, BLOSUM_62_INT.scale(11), BLOSUM_62_INT.scale(20), BLOSUM_62_INT.scale(35));
+            int diagonal = seeds.diagonal(target, workspace);
+            if (diagonal == Integer.MIN_VALUE)
+                diagonal = 0;
+            else
+                seeded++;
+            int[] diagonals = {diagonal};
+
+            for (int width : BAND_WIDTHS) {
+                int banded = SmithWatermanGotoh.scoreBanded(query, target, GAP_OPEN, GAP_EXTEND, diagonals, width, workspace);
+                int first = SmithWatermanGotoh.scoreBanded(query, target, GAP_OPEN, GAP_EXTEND, diagonals, width, homology, workspace);
+                checks += 2;
+                if (banded > exact || (first >= homology && exact < homology)) {
+                    System.out.println(String.format("  band %d at %d: %.1f, first pass %.1f, score %.1f: %s / %s", width, diagonal,
+                            BLOSUM_62_INT.unscale(banded), BLOSUM_62_INT.unscale(first), expected[p], Abbreviate(pair[1]), Abbreviate(pair[0])));
+                    differ++;
+                }
+                if (first >= homology)
+                    settled++;
+
+                for (int threshold : new int[]{homology, exact, exact + 1}) {
+                    checks++;
+                    if (SmithWatermanGotoh.alignsAtLeastBanded(query, target, GAP_OPEN, GAP_EXTEND, threshold, diagonals, width, workspace)
+                            != exact >= threshold) {
+                        System.out.println(String.format("  band %d at %d, at least %.1f: score %.1f: %s / %s", width, diagonal,
+                                BLOSUM_62_INT.unscale(threshold), expected[p], Abbreviate(pair[1]), Abbreviate(pair[0])));
+                        differ++;
+                    }
+                }
+            }
+        }
+        System.out.println(String.format("Banded parity: %d of %d checks differ (%d pairs seeded, %d band passes settled)",
+                differ, checks, seeded, settled));
+        return differ;
+    }
+
+    // Every gene against every reference, then pairs long enough to need
+    // wide lanes: all references joined against themselves, once and twice
+    // over, and against runs of genes joined to the same length. The
+    // references are scored against the doubled join too, to share its batch.
+    // Each pair is {target, query}
+    private static List<String[]> KernelPairs(List<String> references, List<String> genes) {
+        List<String[]> pairs = new ArrayList<>();
+        for (String reference : references)
+            for (String gene : genes)
+                pairs.add(new String[]{gene, reference});
+
+        String joined = String.join("", references);
+        pairs.add(new String[]{joined, joined});
+        pairs.add(new String[]{joined + joined, joined + joined});
+        for (String reference : references)
+            pairs.add(new String[]{reference, joined + joined});
+        StringBuilder run = new StringBuilder();
+        for (String gene : genes.subList(references.size(), genes.size())) {
+            run.append(gene);
+            if (run.length() >= joined.length()) {
+                pairs.add(new String[]{run.toString(), joined});
+                run.setLength(0);
+            }
+        }
+        return pairs;
+    }
+
+    // 1 and a line of detail if a kernel's score is not the float score
+    private static int Compare(String kernel, int score, float expected, String[] pair) {
+        if (BLOSUM_62_INT.unscale(score) == expected)
+            return 0;
+        System.out.println(String.format("  %s %.1f, score %.1f: %s / %s", kernel, BLOSUM_62_INT.unscale(score), expected,
+                Abbreviate(pair[1]), Abbreviate(pair[0])));
+        return 1;
+    }
+
+    private static QueryProfile Profile(String sequence) {
+        return new QueryProfile(Encode(sequence), BLOSUM_62_INT);
+    }
+
+    private static byte[] Encode(String sequence) {
+        return BLOSUM_62_INT.encode(sequence.getBytes());
+    }
+
+    private static String Abbreviate(String sequence) {
+        return sequence.length() <= 20 ? sequence : sequence.substring(0, 20) + "...";
+    }
+
+    private static List<String> ReadReferences(String referenceFile) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(referenceFile)));
+        List<String> references = new ArrayList<>();
+        while (reader.readLine() != null) {
+            String sequence = reader.readLine();
+            if (sequence != null)
+                references.add(sequence);
+        }
+        reader.close();
+        return references;
+    }
+
+    private static List<String> ListGenbankFiles(String dir) {
+        List<String> list = new ArrayList<>();
+        ProcessDir(list, new File(dir));
+        Collections.sort(list);
+        return list;
+    }
+
+    private static void ProcessDir(List<String> list, File dir) {
+        if (dir.exists())
+            for (File file : dir.listFiles())
+                if (file.isDirectory())
+                    ProcessDir(list, file);
+                else
+                    list.add(file.getPath());
+    }
+}
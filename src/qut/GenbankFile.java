@@ -0,0 +1,69 @@
+package qut;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// The records of a GenBank file that may hold many (plasmids and chromosome,
+// contigs of an assembly), each a slice of the mapped file that ends with
+// its "//" line. Slices share the mapping but not a position, so each can
+// go to a different thread and be read with GenbankRecord.Parse(ByteBuffer).
+// Gzip and BGZF files are inflated first, see GzipInput
+public class GenbankFile implements Iterable<ByteBuffer> {
+    private final ByteBuffer buffer;
+
+    public GenbankFile(String file) throws IOException {
+        this(Read(file));
+    }
+
+    public GenbankFile(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    // The bytes of a file: mapped, or inflated if it is gzip or BGZF
+    public static ByteBuffer Read(String file) throws IOException {
+        ByteBuffer buffer = GenbankRecord.Map(file);
+        return GzipInput.IsGzip(buffer) ? GzipInput.Inflate(file, buffer) : buffer;
+    }
+
+    @Override
+    public Iterator<ByteBuffer> iterator() {
+        return new Iterator<ByteBuffer>() {
+            private int start = Skip(buffer.position());
+
+            @Override
+            public boolean hasNext() {
+                return start < buffer.limit();
+            }
+
+            @Override
+            public ByteBuffer next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                int end = End(start);
+                ByteBuffer record = buffer.slice(start, end - start);
+                start = Skip(end);
+                return record;
+            }
+        };
+    }
+
+    // Just past the line break of the first "//" line at or after from, or the limit
+    private int End(int from) {
+        int limit = buffer.limit();
+        for (int i = from; i + 1 < limit; i++) {
+            // Only line starts can begin the terminator, so jump from break to break
+            if (buffer.get(i) == '/' && buffer.get(i + 1) == '/')
+                return GenbankRecord.NextLine(buffer, GenbankRecord.LineEnd(buffer, i));
+            while (i < limit && buffer.get(i) != '\n')
+                i++;
+        }
+        return limit;
+    }
+
+    // First byte at or after from that is not white space, or the limit
+    private int Skip(int from) {
+        return GenbankRecord.TrimStart(buffer, from, buffer.limit());
+    }
+}
@@ -2,6 +2,11 @@ package qut;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -28,4 +33,66 @@ public class GenbankRecord {
 
         return true;
     }
+
+    // Same record as Parse(BufferedReader), from the bytes at the buffer's
+    // position, which is left after the record's "//" line
+    public boolean Parse(ByteBuffer buffer) {
+        return Parse(buffer, false);
+    }
+
+    // Optionally with the genome packed at two bits per base
+    public boolean Parse(ByteBuffer buffer, boolean pack) {
+        genes = Gene.ParseGenes(buffer);
+        if (genes == null || genes.size() == 0) // EOF
+            return false;
+
+        int from = buffer.position();
+        int to = OriginDecoder.End(buffer, from);
+        nucleotides = pack ? OriginDecoder.DecodePacked(buffer, from, to)
+                : new NucleotideSequence(OriginDecoder.Decode(buffer, from, to));
+        buffer.position(NextLine(buffer, LineEnd(buffer, to)));
+
+        return true;
+    }
+
+    // Maps a whole file for Parse(ByteBuffer)
+    public static MappedByteBuffer Map(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // End of the line starting at s, without its line break
+    static int LineEnd(ByteBuffer buffer, int s) {
+        int limit = buffer.limit();
+        int e = s;
+        while (e < limit && buffer.get(e) != '\n')
+            e++;
+        if (e > s && buffer.get(e - 1) == '\r')
+            e--;
+        return e;
+    }
+
+    // Start of the line after the one that ends at e
+    static int NextLine(ByteBuffer buffer, int e) {
+        int limit = buffer.limit();
+        if (e < limit && buffer.get(e) == '\r')
+            e++;
+        if (e < limit && buffer.get(e) == '\n')
+            e++;
+        return e;
+    }
+
+    // Bounds of a line trimmed as String.trim() would
+    static int TrimStart(ByteBuffer buffer, int from, int to) {
+        while (from < to && (buffer.get(from) & 0xff) <= ' ')
+            from++;
+        return from;
+    }
+
+    static int TrimEnd(ByteBuffer buffer, int from, int to) {
+        while (to > from && (buffer.get(to - 1) & 0xff) <= ' ')
+            to--;
+        return to;
+    }
 }
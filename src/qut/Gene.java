@@ -2,7 +2,10 @@ package qut;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -22,6 +25,13 @@ public class Gene {
         this.sequence = new PeptideSequence(sequence);
     }
 
+    public Gene(String name, int strand, int location, PeptideSequence sequence) {
+        this.name = name;
+        this.strand = strand;
+        this.location = location;
+        this.sequence = sequence;
+    }
+
     public static List<Gene> ParseGenes(BufferedReader reader) throws IOException {
         List<Gene> genes = new ArrayList<Gene>();
 
@@ -111,4 +121,161 @@ public class Gene {
                 return genes;
         }
     }
+
+    private static final byte[] CDS = "CDS".getBytes();
+    private static final byte[] ORIGIN = "ORIGIN".getBytes();
+    private static final byte[] COMPLEMENT = "complement(".getBytes();
+    private static final byte[] JOIN = "join(".getBytes();
+    private static final byte[] GENE = "/gene=\"".getBytes();
+    private static final byte[] GENE_ID = "/db_xref=\"GeneID:".getBytes();
+    private static final byte[] TRANSLATION = "/translation=".getBytes();
+
+    // Same genes as ParseGenes(BufferedReader), read straight from the bytes
+    // of a record (a mapped file, say) from its position up to the ORIGIN
+    // line, which the position is left after. Lines are scanned in place,
+    // only names and translations are copied out
+    public static List<Gene> ParseGenes(ByteBuffer buffer) {
+        List<Gene> genes = new ArrayList<Gene>();
+        byte[] translation = new byte[1024];
+        int limit = buffer.limit();
+        int s = buffer.position();
+
+        // loop through all features(genes) until we come to ORIGIN marking start of DNA
+        while (true) {
+            if (s >= limit) {
+                buffer.position(limit);
+                return null;
+            }
+            int e = GenbankRecord.LineEnd(buffer, s);
+            int next = GenbankRecord.NextLine(buffer, e);
+            int ls = GenbankRecord.TrimStart(buffer, s, Math.min(e, s + 20));
+            int le = GenbankRecord.TrimEnd(buffer, ls, Math.min(e, s + 20));
+
+            if (Equals(buffer, ls, le, CDS)) {
+                int location;
+                int strand = 1;
+                String GeneName = null, GeneID = null;
+                int length = -1;
+
+                int from = Math.min(s + 21, e), to = e;
+                if (StartsWith(buffer, from, to, COMPLEMENT)) {
+                    from += COMPLEMENT.length;
+                    to--;
+                    strand = -1;
+                }
+
+                if (StartsWith(buffer, from, to, JOIN)) {
+                    from += JOIN.length;
+                    to--;
+                    while (to > from && buffer.get(to - 1) == ',')
+                        to--;
+                    location = Integer.MAX_VALUE;
+                    for (int part = from; part <= to; ) {
+                        int comma = part;
+                        while (comma < to && buffer.get(comma) != ',')
+                            comma++;
+                        if (part < to && buffer.get(part) == '<') {
+                            location = -1;
+                            break;
+                        }
+                        int separator = IndexOf(buffer, part, comma, '.');
+                        location = Math.min(location, separator <= part ? -1 : ParseInt(buffer, part, separator));
+                        part = comma + 1;
+                    }
+                    if (location == Integer.MAX_VALUE)
+                        location = -1;
+                } else if (from < to && buffer.get(from) == '<')
+                    location = -1;
+                else {
+                    int separator = IndexOf(buffer, from, to, '.');
+                    location = ParseInt(buffer, from, separator < 0 ? to : separator);
+                }
+
+                // loop through attributes of CDS (/db_xref, /translation, etc)
+                while (true) {
+                    s = next;
+                    if (s >= limit)
+                        break;
+                    e = GenbankRecord.LineEnd(buffer, s);
+                    next = GenbankRecord.NextLine(buffer, e);
+                    ls = GenbankRecord.TrimStart(buffer, s, Math.min(e, s + 20));
+                    le = GenbankRecord.TrimEnd(buffer, ls, Math.min(e, s + 20));
+                    if (ls != le) // we've come to the end of the CDS
+                        break;
+
+                    int ts = GenbankRecord.TrimStart(buffer, s, e);
+                    int te = GenbankRecord.TrimEnd(buffer, ts, e);
+                    if (StartsWith(buffer, ts, te, GENE))
+                        GeneName = Text(buffer, ts + GENE.length, te - 1);
+                    else if (StartsWith(buffer, ts, te, GENE_ID))
+                        GeneID = Text(buffer, ts + 10, te - 1);
+                    else if (StartsWith(buffer, ts, te, TRANSLATION)) {
+                        length = 0;
+                        ts += TRANSLATION.length + 1;
+                        while (true) {
+                            boolean end = te > ts && buffer.get(te - 1) == '"';
+                            int count = Math.max(0, (end ? te - 1 : te) - ts);
+                            if (length + count > translation.length)
+                                translation = Arrays.copyOf(translation, Math.max(2 * translation.length, length + count));
+                            buffer.get(ts, translation, length, count);
+                            length += count;
+                            if (end || next >= limit)
+                                break;
+                            s = next;
+                            e = GenbankRecord.LineEnd(buffer, s);
+                            next = GenbankRecord.NextLine(buffer, e);
+                            ts = GenbankRecord.TrimStart(buffer, s, e);
+                            te = GenbankRecord.TrimEnd(buffer, ts, e);
+                        }
+                    }
+                }
+                if (GeneID != null && location > 0 && length >= 0)
+                    genes.add(new Gene(GeneID + "(" + GeneName + ")", strand, location, new PeptideSequence(Arrays.copyOf(translation, length))));
+            }
+            s = next;
+            if (Equals(buffer, ls, le, ORIGIN)) {
+                buffer.position(s);
+                return genes;
+            }
+        }
+    }
+
+    private static boolean StartsWith(ByteBuffer buffer, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length)
+            return false;
+        for (int k = 0; k < prefix.length; k++)
+            if (buffer.get(from + k) != prefix[k])
+                return false;
+        return true;
+    }
+
+    private static boolean Equals(ByteBuffer buffer, int from, int to, byte[] word) {
+        return to - from == word.length && StartsWith(buffer, from, to, word);
+    }
+
+    private static int IndexOf(ByteBuffer buffer, int from, int to, char c) {
+        for (int k = from; k < to; k++)
+            if (buffer.get(k) == c)
+                return k;
+        return -1;
+    }
+
+    private static int ParseInt(ByteBuffer buffer, int from, int to) {
+        if (from >= to)
+            throw new NumberFormatException("Empty location at byte " + from);
+        int value = 0;
+        for (int k = from; k < to; k++) {
+            int digit = buffer.get(k) - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("Bad location at byte " + k);
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static String Text(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[Math.max(0, to - from)];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
 }
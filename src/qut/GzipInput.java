@@ -0,0 +1,133 @@
+package qut;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+// Gzip and BGZF input. BGZF (bgzip, samtools) is a series of small gzip
+// members whose headers carry the compressed size of the member and whose
+// footers the size of its output, so every block can be located up front
+// and inflated on its own: the blocks are inflated in parallel on the
+// fork/join pool of the calling task, or one after another by a caller
+// outside any pool, each straight into its place in one array of the exact
+// output size. Any other gzip file is inflated as one stream
+final class GzipInput {
+    // Blocks of up to 64 KB inflated per task
+    private static final int BLOCKS_PER_TASK = 16;
+
+    private GzipInput() {
+    }
+
+    static boolean IsGzip(ByteBuffer buffer) {
+        return buffer.limit() >= 2 && (buffer.get(0) & 0xff) == 0x1f && (buffer.get(1) & 0xff) == 0x8b;
+    }
+
+    static ByteBuffer Inflate(String file, ByteBuffer compressed) throws IOException {
+        List<int[]> blocks = Blocks(compressed.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+        if (blocks == null) {
+            try (InputStream in = new GZIPInputStream(new FileInputStream(file), 1 << 16)) {
+                return ByteBuffer.wrap(in.readAllBytes());
+            }
+        }
+
+        long total = 0;
+        for (int[] block : blocks)
+            total += block[3] & 0xffffffffL;
+        if (total > Integer.MAX_VALUE - 8)
+            throw new IOException(file + " inflates to more than 2 GB");
+        byte[] output = new byte[(int) total];
+
+        List<ForkJoinTask<Void>> tasks = new ArrayList<>();
+        int offset = 0;
+        for (int first = 0; first < blocks.size(); first += BLOCKS_PER_TASK) {
+            int from = first, to = Math.min(first + BLOCKS_PER_TASK, blocks.size()), at = offset;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                InflateBlocks(compressed, blocks.subList(from, to), output, at);
+                return null;
+            }));
+            for (int k = from; k < to; k++)
+                offset += blocks.get(k)[3];
+        }
+        try {
+            if (ForkJoinTask.inForkJoinPool())
+                ForkJoinTask.invokeAll(tasks);
+            else
+                for (ForkJoinTask<Void> task : tasks)
+                    task.invoke();
+        } catch (RuntimeException ex) {
+            // adapt wraps the checked exceptions of a Callable
+            Throwable cause = ex;
+            while (cause instanceof RuntimeException && cause.getCause() != null)
+                cause = cause.getCause();
+            throw new IOException(file + ": " + cause.getMessage(), cause);
+        }
+        return ByteBuffer.wrap(output);
+    }
+
+    // Each block as {deflate data start, its length, CRC32, output size},
+    // or null if some member is not a BGZF block
+    private static List<int[]> Blocks(ByteBuffer buffer) {
+        List<int[]> blocks = new ArrayList<>();
+        int limit = buffer.limit();
+        for (int pos = 0; pos < limit; ) {
+            if (limit - pos < 18 || (buffer.get(pos) & 0xff) != 0x1f || (buffer.get(pos + 1) & 0xff) != 0x8b
+                    || buffer.get(pos + 2) != 8 || (buffer.get(pos + 3) & 4) == 0)
+                return null;
+            int xlen = buffer.getShort(pos + 10) & 0xffff;
+            int size = -1;
+            for (int field = pos + 12; field + 4 <= pos + 12 + xlen; ) {
+                int length = buffer.getShort(field + 2) & 0xffff;
+                if (buffer.get(field) == 'B' && buffer.get(field + 1) == 'C' && length == 2)
+                    size = (buffer.getShort(field + 4) & 0xffff) + 1;
+                field += 4 + length;
+            }
+            int data = pos + 12 + xlen;
+            if (size < 0 || pos + size > limit || data + 8 > pos + size)
+                return null;
+            blocks.add(new int[]{data, pos + size - 8 - data, buffer.getInt(pos + size - 8), buffer.getInt(pos + size - 4)});
+            pos += size;
+        }
+        return blocks;
+    }
+
+    private static void InflateBlocks(ByteBuffer compressed, List<int[]> blocks, byte[] output, int offset)
+            throws IOException {
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        try {
+            for (int[] block : blocks) {
+                inflater.reset();
+                inflater.setInput(compressed.slice(block[0], block[1]));
+                int length = block[3];
+                int done = 0;
+                while (done < length && !inflater.finished()) {
+                    int n;
+                    try {
+                        n = inflater.inflate(output, offset + done, length - done);
+                    } catch (DataFormatException ex) {
+                        throw new IOException("Corrupt BGZF block at byte " + block[0] + ": " + ex.getMessage(), ex);
+                    }
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                    done += n;
+                }
+                crc.reset();
+                crc.update(output, offset, done);
+                if (done != length || (int) crc.getValue() != block[2])
+                    throw new IOException("Corrupt BGZF block at byte " + block[0]);
+                offset += length;
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+}
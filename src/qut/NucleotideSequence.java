@@ -27,18 +27,27 @@ public class NucleotideSequence {
         bytes = string.getBytes();
     }
 
+    public int length() {
+        return bytes.length;
+    }
+
+    public byte[] copyOfRange(int from, int to) {
+        return java.util.Arrays.copyOfRange(bytes, from, to);
+    }
+
     public NucleotideSequence GetUpstreamRegion(Gene gene) {
         int upStreamDistance = 250;
         if (gene.location <= upStreamDistance)
             upStreamDistance = gene.location - 1;
 
         if (gene.strand == 1)
-            return new NucleotideSequence(java.util.Arrays.copyOfRange(bytes, gene.location - upStreamDistance - 1, gene.location - 1));
+            return new NucleotideSequence(copyOfRange(gene.location - upStreamDistance - 1, gene.location - 1));
         else {
             byte[] result = new byte[upStreamDistance];
-            int reverseStart = bytes.length - gene.location + upStreamDistance;
+            int reverseStart = length() - gene.location + upStreamDistance;
+            byte[] region = copyOfRange(reverseStart - upStreamDistance + 1, reverseStart + 1);
             for (int i = 0; i < upStreamDistance; i++)
-                result[i] = complement[bytes[reverseStart - i]];
+                result[i] = complement[region[upStreamDistance - 1 - i]];
             return new NucleotideSequence(result);
         }
     }
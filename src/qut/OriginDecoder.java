@@ -0,0 +1,107 @@
+package qut;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Bases of an ORIGIN section: every letter up to the "//" line, with the
+// line numbers, spaces and line breaks dropped. A first pass counts the
+// letters so the genome goes straight into an array of its exact size; the
+// second copies the section through a small buffer, compacting as it goes
+final class OriginDecoder {
+    private static final int CHUNK = 1 << 16;
+    private static final boolean VECTOR = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    // 2-bit codes of a, c, g and t, -1 for any other letter
+    private static final byte[] CODES = new byte[256];
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        CODES['a'] = 0;
+        CODES['c'] = 1;
+        CODES['g'] = 2;
+        CODES['t'] = 3;
+    }
+
+    private OriginDecoder() {
+    }
+
+    // Start of the "//" line at or after from, or the limit
+    static int End(ByteBuffer buffer, int from) {
+        int limit = buffer.limit();
+        for (int i = from; i + 1 < limit; i++)
+            if (buffer.get(i) == '/' && buffer.get(i + 1) == '/' && (i == from || buffer.get(i - 1) == '\n'))
+                return i;
+        return limit;
+    }
+
+    static boolean IsLetter(byte b) {
+        return ((b | 0x20) - 'a' & 0xff) < 26;
+    }
+
+    static int Count(ByteBuffer buffer, int from, int to) {
+        if (VECTOR)
+            return VectorOriginDecoder.Count(buffer, from, to);
+        int count = 0;
+        for (int i = from; i < to; i++)
+            if (IsLetter(buffer.get(i)))
+                count++;
+        return count;
+    }
+
+    static byte[] Decode(ByteBuffer buffer, int from, int to) {
+        byte[] bases = new byte[Count(buffer, from, to)];
+        byte[] chunk = new byte[Math.min(CHUNK, to - from)];
+        int n = 0;
+        for (int i = from; i < to && n < bases.length; i += chunk.length) {
+            int length = Math.min(chunk.length, to - i);
+            buffer.get(i, chunk, 0, length);
+            for (int k = 0; k < length; k++) {
+                byte b = chunk[k];
+                if (IsLetter(b))
+                    bases[n++] = b;
+            }
+        }
+        return bases;
+    }
+
+    // Four bases to a byte, first base in the low bits. Letters other than
+    // a, c, g and t are kept aside by position and packed as a
+    static PackedNucleotideSequence DecodePacked(ByteBuffer buffer, int from, int to) {
+        int length = Count(buffer, from, to);
+        byte[] packed = new byte[(length + 3) >> 2];
+        int[] positions = new int[16];
+        byte[] others = new byte[16];
+        int exceptions = 0;
+        int word = 0;
+        byte[] chunk = new byte[Math.min(CHUNK, to - from)];
+        int n = 0;
+        for (int i = from; i < to && n < length; i += chunk.length) {
+            int count = Math.min(chunk.length, to - i);
+            buffer.get(i, chunk, 0, count);
+            for (int k = 0; k < count; k++) {
+                byte b = chunk[k];
+                if (!IsLetter(b))
+                    continue;
+                int code = CODES[b & 0xff];
+                if (code < 0) {
+                    if (exceptions == positions.length) {
+                        positions = Arrays.copyOf(positions, 2 * exceptions);
+                        others = Arrays.copyOf(others, 2 * exceptions);
+                    }
+                    positions[exceptions] = n;
+                    others[exceptions++] = b;
+                    code = 0;
+                }
+                // Four codes build up in a register before their byte is stored
+                word |= code << ((n & 3) << 1);
+                if ((++n & 3) == 0) {
+                    packed[(n >> 2) - 1] = (byte) word;
+                    word = 0;
+                }
+            }
+        }
+        if ((n & 3) != 0)
+            packed[n >> 2] = (byte) word;
+        return new PackedNucleotideSequence(packed, length,
+                Arrays.copyOf(positions, exceptions), Arrays.copyOf(others, exceptions));
+    }
+}
@@ -0,0 +1,45 @@
+package qut;
+
+import java.util.Arrays;
+
+// A genome at two bits per base, for holding many genomes at once. Bases
+// other than a, c, g and t are kept aside by position; bytes is null, so
+// read it through length() and copyOfRange()
+public class PackedNucleotideSequence extends NucleotideSequence {
+    private static final byte[] BASES = {'a', 'c', 'g', 't'};
+
+    private final byte[] packed;
+    private final int length;
+    private final int[] positions;
+    private final byte[] others;
+
+    public PackedNucleotideSequence(byte[] packed, int length, int[] positions, byte[] others) {
+        this.packed = packed;
+        this.length = length;
+        this.positions = positions;
+        this.others = others;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public byte[] copyOfRange(int from, int to) {
+        if (from < 0 || to > length || from > to)
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") of " + length);
+        byte[] result = new byte[to - from];
+        for (int i = from; i < to; i++)
+            result[i - from] = BASES[(packed[i >> 2] >> ((i & 3) << 1)) & 3];
+        int k = Arrays.binarySearch(positions, from);
+        for (k = k < 0 ? -k - 1 : k; k < positions.length && positions[k] < to; k++)
+            result[positions[k] - from] = others[k];
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return new String(copyOfRange(0, length));
+    }
+}
@@ -18,6 +18,10 @@ public class PeptideSequence {
         bytes = string.getBytes();
     }
 
+    public PeptideSequence(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
     public static double Similarity(PeptideSequence A, PeptideSequence B) {
         return SmithWatermanGotoh.align(new Sequence(A.toString()), new Sequence(B.toString()), BLOSUM_62, 10f, 0.5f).calculateScore();
     }
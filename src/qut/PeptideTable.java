@@ -0,0 +1,51 @@
+package qut;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Distinct peptide sequences across every parsed record, each with the genes
+// that share it, so each reference is aligned against a protein only once
+public class PeptideTable {
+    public static class Entry {
+        public PeptideSequence peptide;
+        public List<Gene> genes = new ArrayList<Gene>();
+        public List<NucleotideSequence> nucleotides = new ArrayList<NucleotideSequence>();
+
+        public Entry(PeptideSequence peptide) {
+            this.peptide = peptide;
+        }
+    }
+
+    public final List<Entry> entries = new ArrayList<Entry>();
+    private final Map<ByteBuffer, Entry> index = new HashMap<>();
+    private int genes;
+
+    public void Add(GenbankRecord record) {
+        for (Gene gene : record.genes)
+            Add(gene, record.nucleotides);
+    }
+
+    public void Add(Gene gene, NucleotideSequence nucleotides) {
+        Entry entry = index.get(ByteBuffer.wrap(gene.sequence.bytes));
+        if (entry == null) {
+            entry = new Entry(gene.sequence);
+            index.put(ByteBuffer.wrap(gene.sequence.bytes), entry);
+            entries.add(entry);
+        }
+        entry.genes.add(gene);
+        entry.nucleotides.add(nucleotides);
+        genes++;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Genes added, duplicates included
+    public int genes() {
+        return genes;
+    }
+}
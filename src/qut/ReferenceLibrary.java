@@ -0,0 +1,64 @@
+package qut;
+
+import jaligner.KernelSelector;
+import jaligner.QueryProfile;
+import jaligner.SeedFilter;
+import jaligner.SmithWatermanGotoh;
+import jaligner.matrix.IntegerMatrix;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+// Reference genes with their alignment profiles, built once per run
+public class ReferenceLibrary {
+    public final List<Gene> genes;
+    public final QueryProfile[] profiles;
+    public SeedFilter[] seeds;
+
+    // Pairs the kernel calibration times
+    public static final int CALIBRATION_QUERIES = 4;
+    public static final int CALIBRATION_TARGETS = 64;
+
+    public ReferenceLibrary(List<Gene> genes, IntegerMatrix matrix) {
+        this.genes = genes;
+        this.profiles = new QueryProfile[genes.size()];
+        for (int i = 0; i < profiles.length; i++)
+            profiles[i] = new QueryProfile(matrix.encode(genes.get(i).sequence.bytes), matrix);
+    }
+
+    // Neighbourhood word tables for the optional seed-and-extend prefilter
+    public void buildSeeds(int wordThreshold, int xDrop, int trigger) {
+        seeds = new SeedFilter[profiles.length];
+        for (int i = 0; i < profiles.length; i++)
+            seeds[i] = new SeedFilter(profiles[i], wordThreshold, xDrop, trigger);
+    }
+
+    // Null when the seed tables were not built
+    public SeedFilter seeds(int i) {
+        return seeds == null ? null : seeds[i];
+    }
+
+    // One-to-many kernel: the override or the choice cached for this machine,
+    // else a short calibration of the first references against genes of the
+    // given file, which is only read then. Call it before the timed runs
+    public void selectKernel(String file, int o, int e, int threshold) throws IOException {
+        SmithWatermanGotoh.Kernel kernel = KernelSelector.lookup();
+        if (kernel == null && file != null) {
+            GenbankRecord record = new GenbankRecord();
+            record.Parse(GenbankFile.Read(file));
+            List<Gene> genes = record.genes;
+            IntegerMatrix matrix = profiles[0].getMatrix();
+            QueryProfile[] queries = Arrays.copyOf(profiles, Math.min(CALIBRATION_QUERIES, size()));
+            byte[][] targets = new byte[Math.min(CALIBRATION_TARGETS, genes.size())][];
+            for (int k = 0; k < targets.length; k++)
+                targets[k] = matrix.encode(genes.get(k * genes.size() / targets.length).sequence.bytes);
+            kernel = KernelSelector.calibrate(queries, targets, o, e, threshold);
+        }
+        SmithWatermanGotoh.setKernel(kernel);
+    }
+
+    public int size() {
+        return profiles.length;
+    }
+}
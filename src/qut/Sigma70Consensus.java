@@ -30,6 +30,10 @@ public class Sigma70Consensus {
         alphabet[3] = 'T';
     }
 
+    public int getPredictions() {
+        return predictions;
+    }
+
     private double getGapAverage() {
         return (double) gapTotal / predictions;
     }
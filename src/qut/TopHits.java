@@ -0,0 +1,50 @@
+package qut;
+
+// The K best-scoring references of one gene, kept sorted by score and then
+// by reference index, so ties go to the reference that comes first
+public class TopHits {
+    private final int[] scores;
+    private final int[] references;
+    private int found;
+
+    public TopHits(int k) {
+        this.scores = new int[k];
+        this.references = new int[k];
+    }
+
+    public boolean full() {
+        return found == scores.length;
+    }
+
+    // What a reference must score to still get in, never below the homology threshold
+    public int threshold(int homologyThreshold) {
+        return full() ? Math.max(homologyThreshold, scores[found - 1]) : homologyThreshold;
+    }
+
+    public void offer(int reference, int score) {
+        int at = Math.min(found, scores.length - 1);
+        if (full() && !before(score, reference, at))
+            return;
+        while (at > 0 && before(score, reference, at - 1)) {
+            scores[at] = scores[at - 1];
+            references[at] = references[at - 1];
+            at--;
+        }
+        scores[at] = score;
+        references[at] = reference;
+        if (found < scores.length)
+            found++;
+    }
+
+    // One flag per reference of the library
+    public boolean[] toArray(int size) {
+        boolean[] hits = new boolean[size];
+        for (int k = 0; k < found; k++)
+            hits[references[k]] = true;
+        return hits;
+    }
+
+    private boolean before(int score, int reference, int at) {
+        return score > scores[at] || (score == scores[at] && reference < references[at]);
+    }
+}
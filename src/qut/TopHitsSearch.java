@@ -0,0 +1,146 @@
+package qut;
+
+import jaligner.QueryProfile;
+import jaligner.ScoreCache;
+import jaligner.SeedFilter;
+import jaligner.SmithWatermanGotoh;
+import jaligner.Workspace;
+import jaligner.matrix.IntegerMatrix;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+// Finds the K best references of each gene, ties going to the earlier one.
+// References are taken in order of their score bound. Until K hits are found
+// they are scored in batches like the all-pairs path; after that the K-th
+// best score is the threshold the rest must reach, so the early-exit test
+// stops most of them and the scan ends where the bounds fall below it.
+// One search serves every thread of a run
+public class TopHitsSearch {
+    public static final int BATCH = 64;
+
+    private final int k;
+    private final IntegerMatrix matrix;
+    private final int o;
+    private final int e;
+    private final int homologyThreshold;
+    private final LongAdder pairs = new LongAdder();
+    private final LongAdder pruned = new LongAdder();
+    private final LongAdder scored = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    public TopHitsSearch(int k, IntegerMatrix matrix, int o, int e, int homologyThreshold) {
+        this.k = k;
+        this.matrix = matrix;
+        this.o = o;
+        this.e = e;
+        this.homologyThreshold = homologyThreshold;
+    }
+
+    // One flag per reference of the library. With filter set, pairs the
+    // library's seeds turn down are skipped; the cache, when not null, is
+    // consulted and filled pair by pair
+    public boolean[] search(byte[] sequence, ReferenceLibrary library, boolean filter,
+                            ScoreCache cache, long params, Workspace workspace) {
+        long gene = cache == null ? 0 : ScoreCache.hash(sequence);
+        long[] order = new long[library.size()];
+        int count = 0;
+        for (int i = 0; i < library.size(); i++) {
+            pairs.increment();
+            int bound = library.profiles[i].upperBound(sequence);
+            if (bound < homologyThreshold) {
+                pruned.increment();
+                continue;
+            }
+            // Highest bound first, then lowest index
+            order[count++] = (long) -bound << 32 | i;
+        }
+        Arrays.sort(order, 0, count);
+
+        TopHits hits = new TopHits(k);
+        QueryProfile query = null;
+        int[] rest = new int[Math.min(count, BATCH)];
+        for (int next = 0; next < count; ) {
+            int threshold = hits.threshold(homologyThreshold);
+            if ((int) -(order[next] >> 32) < threshold) {
+                pruned.add(count - next);
+                break;
+            }
+            int batch = hits.full() ? 1 : Math.min(count - next, BATCH);
+            int left = 0;
+            for (int end = next + batch; next < end; next++) {
+                int i = (int) order[next];
+                SeedFilter seeds = library.seeds(i);
+                if (filter && seeds != null && !seeds.passes(sequence, workspace))
+                    continue;
+                if (cache != null) {
+                    int cached = cache.get(ScoreCache.hash(library.profiles[i].getResidues()), gene, params);
+                    if (ScoreCache.decides(cached, threshold)) {
+                        cacheHits.increment();
+                        if (cached >= threshold)
+                            hits.offer(i, cached);
+                        continue;
+                    }
+                    cacheMisses.increment();
+                }
+                rest[left++] = i;
+            }
+            if (left == 0)
+                continue;
+            scored.add(left);
+
+            if (!hits.full()) {
+                byte[][] targets = new byte[left][];
+                for (int t = 0; t < left; t++)
+                    targets[t] = library.profiles[rest[t]].getResidues();
+                if (query == null)
+                    query = new QueryProfile(sequence, matrix);
+                int[] scores = SmithWatermanGotoh.score(query, targets, o, e);
+                for (int t = 0; t < left; t++) {
+                    if (scores[t] >= threshold)
+                        hits.offer(rest[t], scores[t]);
+                    if (cache != null)
+                        cache.put(ScoreCache.hash(targets[t]), gene, params, scores[t]);
+                }
+                continue;
+            }
+
+            // The K-th best score must be beaten, and the hit's exact score
+            // becomes part of the threshold
+            QueryProfile B = library.profiles[rest[0]];
+            long reference = cache == null ? 0 : ScoreCache.hash(B.getResidues());
+            if (!SmithWatermanGotoh.alignsAtLeast(B, sequence, o, e, threshold, workspace)) {
+                if (cache != null)
+                    cache.put(reference, gene, params, ScoreCache.below(threshold));
+                continue;
+            }
+            int score = SmithWatermanGotoh.score(B, sequence, o, e, workspace);
+            hits.offer(rest[0], score);
+            if (cache != null)
+                cache.put(reference, gene, params, score);
+        }
+        return hits.toArray(library.size());
+    }
+
+    public long getPairs() {
+        return pairs.sum();
+    }
+
+    public long getPruned() {
+        return pruned.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    public String report() {
+        long total = pairs.sum(), aligned = scored.sum();
+        return String.format("Top %d hits aligned %d of %d pairs (%.1f%%)", k, aligned, total, total == 0 ? 0 : 100.0 * aligned / total);
+    }
+}
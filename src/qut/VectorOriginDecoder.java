@@ -0,0 +1,33 @@
+package qut;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Letter count of OriginDecoder a vector at a time, straight from the
+// mapped file. Only loaded when jdk.incubator.vector is present
+final class VectorOriginDecoder {
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+    private VectorOriginDecoder() {
+    }
+
+    static int Count(ByteBuffer buffer, int from, int to) {
+        int count = 0;
+        int i = from;
+        for (int end = to - BYTES.length(); i <= end; i += BYTES.length()) {
+            ByteVector v = ByteVector.fromByteBuffer(BYTES, buffer, i, ByteOrder.nativeOrder());
+            count += v.lanewise(VectorOperators.OR, (byte) 0x20)
+                    .lanewise(VectorOperators.SUB, (byte) 'a')
+                    .compare(VectorOperators.UNSIGNED_LT, (byte) 26)
+                    .trueCount();
+        }
+        for (; i < to; i++)
+            if (OriginDecoder.IsLetter(buffer.get(i)))
+                count++;
+        return count;
+    }
+}